@@ -0,0 +1,80 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.benchmark;
+
+import dev.hypera.scaffolding.Scaffolding;
+import dev.hypera.scaffolding.benchmark.SyntheticSchematics.Format;
+import dev.hypera.scaffolding.instance.SchematicChunkLoader;
+import dev.hypera.scaffolding.schematic.PlacementOptions;
+import dev.hypera.scaffolding.schematic.Schematic;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks walking a decoded schematic, through {@link Schematic#apply(net.minestom.server.instance.block.Block.Setter)}
+ * and by building a {@link SchematicChunkLoader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApplyBenchmark {
+
+    @Param({"32", "128"})
+    private int size;
+
+    @Param({"16", "256"})
+    private int paletteSize;
+
+    private static final PlacementOptions SKIP_AIR = PlacementOptions.builder().skipAir(true).build();
+
+    private Schematic schematic;
+
+    @Setup
+    public void setup() throws Exception {
+        schematic = Scaffolding.fromStream(new ByteArrayInputStream(SyntheticSchematics.generate(Format.SPONGE, size, paletteSize)));
+    }
+
+    @Benchmark
+    public void apply(Blackhole blackhole) {
+        schematic.apply((x, y, z, block) -> blackhole.consume(block));
+    }
+
+    @Benchmark
+    public void applySkipAir(Blackhole blackhole) {
+        schematic.apply((x, y, z, block) -> blackhole.consume(block), SKIP_AIR);
+    }
+
+    @Benchmark
+    public SchematicChunkLoader chunkLoader() {
+        return SchematicChunkLoader.builder()
+                .addSchematic(schematic)
+                .build();
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.benchmark;
+
+import dev.hypera.scaffolding.schematic.BlockDataDecoder;
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding Sponge {@code BlockData} varints into a {@link BlockStorage}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"64", "256"})
+    private int size;
+
+    @Param({"16", "1024"})
+    private int paletteSize;
+
+    private byte[] blockData;
+
+    @Setup
+    public void setup() {
+        blockData = SyntheticSchematics.blockData(size * size * size, paletteSize);
+    }
+
+    @Benchmark
+    public BlockStorage readBlocks() throws NBTException {
+        BlockStorage storage = new BlockStorage(size, size, size, paletteSize);
+        BlockDataDecoder decoder = new BlockDataDecoder(storage);
+        decoder.decode(blockData, 0, blockData.length);
+        decoder.finish(paletteSize);
+        return storage;
+    }
+
+    @Benchmark
+    public BlockStorage readBlocksParallel() throws NBTException {
+        BlockStorage storage = new BlockStorage(size, size, size, paletteSize);
+        BlockDataDecoder decoder = new BlockDataDecoder(storage);
+        decoder.decodeParallel(ByteBuffer.wrap(blockData), paletteSize);
+        decoder.finish(paletteSize);
+        return storage;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.benchmark;
+
+import dev.hypera.scaffolding.Scaffolding;
+import dev.hypera.scaffolding.benchmark.SyntheticSchematics.Format;
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.schematic.impl.CompiledSchematic;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Scaffolding#fromStream(java.io.InputStream)}, from compressed bytes to a decoded schematic, and
+ * loading the same schematic from a direct buffer holding its compiled form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"SPONGE", "MCEDIT"})
+    private Format format;
+
+    @Param({"32", "128"})
+    private int size;
+
+    @Param({"16", "256"})
+    private int paletteSize;
+
+    private byte[] bytes;
+    private ByteBuffer compiled;
+
+    @Setup
+    public void setup() throws IOException, NBTException {
+        bytes = SyntheticSchematics.generate(format, size, paletteSize);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CompiledSchematic.compile((AbstractSchematic) Scaffolding.fromStream(new ByteArrayInputStream(bytes)), output);
+        compiled = ByteBuffer.allocateDirect(output.size());
+        compiled.put(output.toByteArray()).flip();
+    }
+
+    @Benchmark
+    public Schematic fromStream() throws IOException, NBTException {
+        return Scaffolding.fromStream(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public Schematic fromCompiled() throws NBTException {
+        CompiledSchematic schematic = new CompiledSchematic();
+        schematic.read(compiled);
+        return schematic;
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.benchmark;
+
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.nbt.NBTOutputStream;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates synthetic schematics for the benchmarks.
+ * <br><br>
+ * Roughly half of every schematic is air, the rest is spread evenly over the remaining palette entries.
+ */
+public final class SyntheticSchematics {
+
+    public enum Format {
+        SPONGE,
+        MCEDIT
+    }
+
+    private SyntheticSchematics() {}
+
+    /**
+     * Generates a GZIP compressed schematic.
+     * @param format The schematic format.
+     * @param size The size of the schematic on every axis.
+     * @param paletteSize The amount of distinct blocks, at most 256 for MCEdit schematics.
+     * @return The schematic bytes.
+     */
+    public static byte @NotNull [] generate(@NotNull Format format, int size, int paletteSize) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (NBTOutputStream output = new NBTOutputStream(new GZIPOutputStream(bytes))) {
+                output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Schematic");
+                output.writeShortTag("Width", (short) size);
+                output.writeShortTag("Height", (short) size);
+                output.writeShortTag("Length", (short) size);
+
+                if (format == Format.SPONGE) {
+                    List<String> entries = paletteEntries(paletteSize);
+                    writeSponge(output, paletteIndices(size * size * size, entries.size()), entries);
+                } else {
+                    writeMCEdit(output, paletteIndices(size * size * size, Math.min(paletteSize, 256)));
+                }
+
+                output.writeEnd();
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates raw Sponge block data, one varint per block.
+     * @param blocks The amount of blocks.
+     * @param paletteSize The amount of distinct blocks.
+     * @return The block data.
+     */
+    public static byte @NotNull [] blockData(int blocks, int paletteSize) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(blocks);
+        for (int value : paletteIndices(blocks, paletteSize)) {
+            while ((value & ~0x7F) != 0) {
+                bytes.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes.write(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the first block state strings known to Minestom, starting with air.
+     * @param paletteSize The amount of block state strings.
+     * @return The block state strings.
+     */
+    public static @NotNull List<String> paletteEntries(int paletteSize) {
+        List<String> entries = new ArrayList<>(paletteSize);
+        entries.add("minecraft:air");
+        for (Block block : Block.values()) {
+            for (Block state : block.possibleStates()) {
+                if (entries.size() == paletteSize) return entries;
+                if (!state.isAir()) entries.add(toString(state));
+            }
+        }
+        return entries;
+    }
+
+    private static void writeSponge(@NotNull NBTOutputStream output, int @NotNull [] indices, @NotNull List<String> entries) throws IOException {
+        output.writeIntTag("Version", 2);
+        output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Metadata");
+        output.writeIntTag("WEOffsetX", 0);
+        output.writeIntTag("WEOffsetY", 0);
+        output.writeIntTag("WEOffsetZ", 0);
+        output.writeEnd();
+
+        output.writeIntTag("PaletteMax", entries.size());
+        output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Palette");
+        for (int i = 0; i < entries.size(); i++) output.writeIntTag(entries.get(i), i);
+        output.writeEnd();
+
+        ByteArrayOutputStream blockData = new ByteArrayOutputStream(indices.length);
+        for (int value : indices) {
+            while ((value & ~0x7F) != 0) {
+                blockData.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            blockData.write(value);
+        }
+        output.writeByteArrayHeader("BlockData", blockData.size());
+        blockData.writeTo(output);
+    }
+
+    private static void writeMCEdit(@NotNull NBTOutputStream output, int @NotNull [] indices) throws IOException {
+        output.writeStringTag("Materials", "Alpha");
+        output.writeIntTag("WEOffsetX", 0);
+        output.writeIntTag("WEOffsetY", 0);
+        output.writeIntTag("WEOffsetZ", 0);
+
+        output.writeByteArrayHeader("Blocks", indices.length);
+        for (int index : indices) output.writeByte(index);
+        output.writeByteArrayHeader("Data", indices.length);
+        output.write(new byte[indices.length]);
+    }
+
+    private static int @NotNull [] paletteIndices(int blocks, int paletteSize) {
+        SplittableRandom random = new SplittableRandom(blocks * 31L + paletteSize);
+        int[] indices = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            indices[i] = paletteSize > 1 && random.nextBoolean() ? 1 + random.nextInt(paletteSize - 1) : 0;
+        }
+        return indices;
+    }
+
+    private static @NotNull String toString(@NotNull Block block) {
+        Map<String, String> properties = block.properties();
+        if (properties.isEmpty()) return block.name();
+
+        StringBuilder builder = new StringBuilder(block.name()).append('[');
+        properties.forEach((key, value) -> builder.append(key).append('=').append(value).append(','));
+        builder.setCharAt(builder.length() - 1, ']');
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding;
+
+import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.schematic.SchematicReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads every schematic of a directory at once.
+ * <br><br>
+ * Files are loaded on a pool with two threads per core, so reading one file overlaps with decompressing and decoding
+ * another. Every file is decoded by the thread that read it as soon as it has been read, so no more files than there
+ * are threads are held in memory decompressed at once.
+ */
+public final class BulkLoader {
+
+    private static final int THREADS_PER_CORE = 2;
+
+    private BulkLoader() {}
+
+    /**
+     * Loads every file of the given directory matching the given glob.
+     * @param directory The directory, subdirectories are not searched.
+     * @param glob The glob files must match, such as {@code *.schem}.
+     * @return A future completed with the result of every file, in the order the directory listed them.
+     * @throws IOException if the directory can not be listed
+     */
+    public static @NotNull CompletableFuture<Map<Path, Result>> loadAll(@NotNull Path directory, @NotNull String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) paths.add(path);
+            }
+        }
+        return loadAll(paths);
+    }
+
+    /**
+     * Loads every given file.
+     * @param paths The files.
+     * @return A future completed with the result of every file, in the given order.
+     */
+    public static @NotNull CompletableFuture<Map<Path, Result>> loadAll(@NotNull List<Path> paths) {
+        if (paths.isEmpty()) return CompletableFuture.completedFuture(Map.of());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(paths.size(), Runtime.getRuntime().availableProcessors() * THREADS_PER_CORE),
+                daemonFactory("Scaffolding-Load-"));
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(CompletableFuture.supplyAsync(() -> load(path), executor)
+                    .exceptionally(e -> new Result(path, null, unwrap(e))));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            executor.shutdown();
+
+            Map<Path, Result> results = new LinkedHashMap<>();
+            for (CompletableFuture<Result> future : futures) {
+                Result result = future.join();
+                results.put(result.path(), result);
+            }
+            return results;
+        });
+    }
+
+    private static @NotNull Result load(@NotNull Path path) {
+        try {
+            Schematic schematic = SchematicReader.read(SchematicReader.load(path));
+            if (schematic == null) return new Result(path, null, new NBTException("Invalid Schematic: Unknown format"));
+            return new Result(path, schematic, null);
+        } catch (IOException | NBTException e) {
+            return new Result(path, null, e);
+        }
+    }
+
+    private static @NotNull Throwable unwrap(@NotNull Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) throwable = throwable.getCause();
+        return throwable;
+    }
+
+    private static @NotNull ThreadFactory daemonFactory(@NotNull String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The result of loading a single file.
+     * @param path The file.
+     * @param schematic The schematic, or {@code null} if it could not be loaded.
+     * @param error The reason the schematic could not be loaded, or {@code null} if it was loaded.
+     */
+    public record Result(@NotNull Path path, @Nullable Schematic schematic, @Nullable Throwable error) {
+
+        /**
+         * Checks whether the schematic was loaded.
+         * @return {@code true} if the schematic was loaded.
+         */
+        public boolean isSuccess() {
+            return schematic != null;
+        }
+
+    }
+
+}
@@ -24,40 +24,35 @@ package dev.hypera.scaffolding;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import kotlin.Pair;
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
 import dev.hypera.scaffolding.schematic.Schematic;
-import dev.hypera.scaffolding.schematic.impl.MCEditSchematic;
-import dev.hypera.scaffolding.schematic.impl.SpongeSchematic;
+import dev.hypera.scaffolding.schematic.SchematicReader;
+import dev.hypera.scaffolding.schematic.impl.CompiledSchematic;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jglrxavpok.hephaistos.nbt.*;
 
 import java.io.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class Scaffolding {
 
     /**
-     * Automatically detects the type of schematic and parses the input stream
+     * Automatically detects the type of schematic and parses the input stream.
+     * The stream is decoded as it is read, without building the full NBT tree first.
      * @param inputStream Schematic input
      * @return parsed schematic
      * @throws IOException if the input stream is invalid
      * @throws NBTException if the schematic is invalid
      */
     public static @Nullable Schematic fromStream(@NotNull InputStream inputStream) throws IOException, NBTException {
-        NBTReader reader = new NBTReader(inputStream, CompressedProcesser.GZIP);
-        Pair<String, NBT> pair = reader.readNamed();
-        NBTCompound nbtTag = (NBTCompound) pair.getSecond();
-
-        Schematic schematic = null;
-        if (nbtTag.contains("Blocks")) schematic = new MCEditSchematic();
-        else if (nbtTag.contains("Palette")) schematic = new SpongeSchematic();
-
-        if (schematic != null) schematic.read(nbtTag);
-        return schematic;
+        return SchematicReader.read(inputStream);
     }
 
     /**
-     * Automatically detects the type of schematic and parses the file
+     * Automatically detects the type of schematic and parses the file.
+     * The file is memory-mapped, and may be GZIP, zlib or not compressed at all.
      * @param path Schematic path
      * @return parsed schematic
      * @throws IOException if the file is invalid
@@ -65,7 +60,36 @@ public class Scaffolding {
      */
     public static @Nullable Schematic fromPath(@NotNull Path path) throws IOException, NBTException {
         if (!Files.exists(path)) throw new FileNotFoundException("Invalid Schematic: File does not exist");
-        return fromStream(Files.newInputStream(path));
+        return SchematicReader.read(path);
+    }
+
+    /**
+     * Loads every schematic in the given directory matching the given glob, such as {@code *.schem}.
+     * Files are read, decompressed and decoded in parallel, on a bounded pool of threads.
+     * @param directory Schematic directory
+     * @param glob File name glob
+     * @return a future completed with the result of every file, failed files carry their error instead of failing
+     * the future
+     * @throws IOException if the directory can not be listed
+     * @see BulkLoader
+     */
+    public static @NotNull CompletableFuture<Map<Path, BulkLoader.Result>> loadAll(@NotNull Path directory, @NotNull String glob) throws IOException {
+        return BulkLoader.loadAll(directory, glob);
+    }
+
+    /**
+     * Compiles the schematic at the given path into Scaffolding's precompiled format, which loads without any
+     * parsing or decoding.
+     * @param source Schematic path
+     * @param target Compiled schematic path
+     * @throws IOException if a file is invalid
+     * @throws NBTException if the schematic is invalid
+     * @see CompiledSchematic
+     */
+    public static void compile(@NotNull Path source, @NotNull Path target) throws IOException, NBTException {
+        Schematic schematic = fromPath(source);
+        if (!(schematic instanceof AbstractSchematic abstractSchematic)) throw new NBTException("Invalid Schematic: Unknown format");
+        CompiledSchematic.compile(abstractSchematic, Files.newOutputStream(target));
     }
 
     /**
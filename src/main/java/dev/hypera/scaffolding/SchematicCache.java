@@ -0,0 +1,316 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding;
+
+import dev.hypera.scaffolding.schematic.Schematic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of schematics loaded with {@link Scaffolding#fromPath(Path)}.
+ * <br><br>
+ * Entries are keyed on the path of the file, and are reloaded when its modification time or size changes.
+ * Concurrent requests for the same file share a single load. Once the total amount of cached blocks exceeds the
+ * maximum weight, the least recently used schematics are evicted.
+ * <br><br>
+ * Cached schematics are shared between every caller, and must be treated as immutable templates.
+ */
+public final class SchematicCache {
+
+    private final long maximumWeight;
+    private final boolean softValues;
+    private final @NotNull Executor executor;
+
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private SchematicCache(long maximumWeight, boolean softValues, @NotNull Executor executor) {
+        this.maximumWeight = maximumWeight;
+        this.softValues = softValues;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a builder for a {@link SchematicCache}.
+     * @return The builder.
+     */
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the schematic at the given path, loading it if it isn't cached or the file changed.
+     * @param path Schematic path
+     * @return A future completed with the schematic, or {@code null} if its format is unknown.
+     */
+    public @NotNull CompletableFuture<@Nullable Schematic> get(@NotNull Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            invalidate(key);
+            return CompletableFuture.failedFuture(new FileNotFoundException("Invalid Schematic: File does not exist"));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.matches(attributes)) {
+                CompletableFuture<Schematic> cached = entry.get();
+                if (cached != null) {
+                    hits.increment();
+                    return cached;
+                }
+            }
+
+            misses.increment();
+            if (entry != null) remove(key, entry);
+            entry = new Entry(attributes.lastModifiedTime(), attributes.size());
+            entries.put(key, entry);
+        }
+
+        Entry loading = entry;
+        CompletableFuture.runAsync(() -> load(key, loading), executor);
+        return loading.future;
+    }
+
+    /**
+     * Gets the schematic at the given path, loading it on the calling thread's behalf if needed.
+     * @param path Schematic path
+     * @return parsed schematic
+     * @throws IOException if the file is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    public @Nullable Schematic load(@NotNull Path path) throws IOException, NBTException {
+        try {
+            return get(path).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            if (e.getCause() instanceof NBTException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private void load(@NotNull Path path, @NotNull Entry entry) {
+        long start = System.nanoTime();
+        Schematic schematic;
+        try {
+            schematic = Scaffolding.fromPath(path);
+        } catch (Throwable e) {
+            loadFailures.increment();
+            synchronized (this) {
+                if (entries.get(path) == entry) remove(path, entry);
+            }
+            entry.future.completeExceptionally(e);
+            return;
+        } finally {
+            totalLoadTime.add(System.nanoTime() - start);
+        }
+
+        synchronized (this) {
+            if (entries.get(path) == entry) {
+                if (schematic == null) remove(path, entry);
+                else {
+                    entry.complete(schematic, softValues);
+                    weight += entry.weight;
+                    evict();
+                }
+            }
+        }
+        entry.future.complete(schematic);
+        if (softValues) entry.future = null;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+        while (weight > maximumWeight && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.weight == 0) continue; // Still loading
+
+            iterator.remove();
+            weight -= entry.weight;
+            evictions.increment();
+        }
+    }
+
+    private void remove(@NotNull Path path, @NotNull Entry entry) {
+        entries.remove(path);
+        weight -= entry.weight;
+    }
+
+    /**
+     * Removes the schematic at the given path from the cache.
+     * @param path Schematic path
+     */
+    public synchronized void invalidate(@NotNull Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Entry entry = entries.get(key);
+        if (entry != null) remove(key, entry);
+    }
+
+    /**
+     * Removes every schematic from the cache.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Gets a snapshot of the statistics of this cache.
+     * @return The statistics.
+     */
+    public synchronized @NotNull Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), loadFailures.sum(), totalLoadTime.sum(), evictions.sum(), entries.size(), weight);
+    }
+
+    /**
+     * Statistics of a {@link SchematicCache}.
+     * @param hits The amount of requests served from the cache, including requests joining a load in progress.
+     * @param misses The amount of requests that started a load.
+     * @param loadFailures The amount of loads that failed.
+     * @param totalLoadTimeNanos The total time spent loading, in nanoseconds.
+     * @param evictions The amount of schematics evicted because of the maximum weight.
+     * @param size The amount of cached schematics, including loads in progress.
+     * @param weight The total amount of blocks in the cached schematics.
+     */
+    public record Stats(long hits, long misses, long loadFailures, long totalLoadTimeNanos, long evictions, int size, long weight) {
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        public double averageLoadTimeNanos() {
+            return misses == 0 ? 0.0 : (double) totalLoadTimeNanos / misses;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final @NotNull FileTime lastModified;
+        private final long size;
+
+        private volatile CompletableFuture<Schematic> future = new CompletableFuture<>();
+        private SoftReference<Schematic> softValue;
+        private long weight;
+
+        private Entry(@NotNull FileTime lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        private boolean matches(@NotNull BasicFileAttributes attributes) {
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+
+        private void complete(@NotNull Schematic schematic, boolean soft) {
+            this.weight = Math.max(1, (long) schematic.getWidth() * schematic.getHeight() * schematic.getLength());
+            if (soft) this.softValue = new SoftReference<>(schematic);
+        }
+
+        private @Nullable CompletableFuture<Schematic> get() {
+            CompletableFuture<Schematic> future = this.future;
+            if (future != null) return future;
+
+            Schematic schematic = softValue.get();
+            return schematic == null ? null : CompletableFuture.completedFuture(schematic);
+        }
+
+    }
+
+    public static class Builder {
+
+        private long maximumWeight = Long.MAX_VALUE;
+        private boolean softValues;
+        private @NotNull Executor executor = ForkJoinPool.commonPool();
+
+        private Builder() {}
+
+        /**
+         * Specifies the maximum total amount of blocks in the cached schematics.
+         * @param maximumWeight The maximum weight.
+         * @return This builder.
+         */
+        public @NotNull Builder maximumWeight(long maximumWeight) {
+            if (maximumWeight < 0) throw new IllegalArgumentException("Maximum weight must not be negative");
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Specifies whether cached schematics are only softly referenced, so the garbage collector may reclaim them
+         * when memory runs low.
+         * @param softValues Whether schematics are softly referenced.
+         * @return This builder.
+         */
+        public @NotNull Builder softValues(boolean softValues) {
+            this.softValues = softValues;
+            return this;
+        }
+
+        /**
+         * Specifies the executor schematics are loaded on.
+         * @param executor The executor.
+         * @return This builder.
+         */
+        public @NotNull Builder executor(@NotNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public @NotNull SchematicCache build() {
+            return new SchematicCache(maximumWeight, softValues, executor);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Block setter collecting the blocks that differ from the current blocks of a chunk.
+ * <br><br>
+ * Current blocks are read straight from the section palettes, so comparing a block costs a palette lookup rather
+ * than a {@link Chunk#getBlock(int, int, int)} call. Where either the current block or the block of the schematic has
+ * NBT or a handler, the full blocks are compared, so edited signs or filled chests are restored.
+ */
+final class ChangedBlocks implements Block.Setter {
+
+    private final @NotNull Chunk chunk;
+    private int[] positions = new int[48];
+    private Block[] blocks = new Block[16];
+    private int size;
+
+    ChangedBlocks(@NotNull Chunk chunk) {
+        this.chunk = chunk;
+    }
+
+    @Override
+    public void setBlock(int x, int y, int z, @NotNull Block block) {
+        if (isUnchanged(x, y, z, block)) return;
+
+        if (size == blocks.length) {
+            blocks = Arrays.copyOf(blocks, size * 2);
+            positions = Arrays.copyOf(positions, size * 6);
+        }
+        positions[size * 3] = x;
+        positions[size * 3 + 1] = y;
+        positions[size * 3 + 2] = z;
+        blocks[size++] = block;
+    }
+
+    private boolean isUnchanged(int x, int y, int z, @NotNull Block block) {
+        int section = y >> 4;
+        if (section < chunk.getMinSection() || section >= chunk.getMaxSection()) return false;
+        if (chunk.getSection(section).blockPalette().get(x & 15, y & 15, z & 15) != block.stateId()) return false;
+
+        // The palette only holds the state, so blocks with data, such as a chest players filled, are compared in full.
+        // Only those blocks are cached by the chunk, the lookup is a miss for every other block
+        Block current = chunk.getBlock(x, y, z, Block.Getter.Condition.CACHED);
+        if (current == null) return !block.hasNbt() && block.handler() == null;
+        return block.equals(current);
+    }
+
+    /**
+     * Places the collected blocks.
+     * @param setter The block setter.
+     */
+    void apply(@NotNull Block.Setter setter) {
+        for (int i = 0; i < size; i++) setter.setBlock(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], blocks[i]);
+    }
+
+    /**
+     * Gets the amount of blocks that differ.
+     * @return The amount of changed blocks.
+     */
+    int size() {
+        return size;
+    }
+
+}
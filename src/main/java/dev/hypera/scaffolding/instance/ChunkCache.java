@@ -0,0 +1,559 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.BlockEntities;
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import dev.hypera.scaffolding.schematic.PlacementOptions;
+import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.schematic.TransformedSchematic;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.block.BlockManager;
+import net.minestom.server.utils.NamespaceID;
+import net.minestom.server.world.biomes.Biome;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.CompressedProcesser;
+import org.jglrxavpok.hephaistos.nbt.NBTCompound;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.jglrxavpok.hephaistos.nbt.NBTReader;
+import org.jglrxavpok.hephaistos.nbt.NBTWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * On-disk cache of the chunks built by a {@link SchematicChunkLoader}.
+ * <br><br>
+ * The file starts with a header holding a hash of everything the chunks were built from, followed by a table of the
+ * offset and length of every chunk, sorted by chunk index. Loading a chunk reads only that chunk, with a positioned
+ * read. A chunk holds its non-empty sections palette-packed, its block entities and its biomes. Block handlers are
+ * stored by their namespace and resolved through the {@link BlockManager} when the chunk is loaded.
+ */
+final class ChunkCache implements AutoCloseable {
+
+    private static final int MAGIC = 0x53434643; // SCFC
+    private static final int VERSION = 2;
+    private static final int KEY_SIZE = 32;
+    private static final int ENTRY_SIZE = Long.BYTES * 2 + Integer.BYTES;
+    private static final int HEADER_SIZE = Integer.BYTES * 3 + KEY_SIZE;
+
+    private final @NotNull FileChannel channel;
+    private final long @NotNull [] chunkIndices;
+    private final long @NotNull [] offsets;
+    private final int @NotNull [] lengths;
+
+    private ChunkCache(@NotNull FileChannel channel, long @NotNull [] chunkIndices, long @NotNull [] offsets, int @NotNull [] lengths) {
+        this.channel = channel;
+        this.chunkIndices = chunkIndices;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Opens the cache file, if it was built from the inputs the given key was computed from.
+     * @param file The cache file.
+     * @param key The key of the inputs.
+     * @return The cache, or {@code null} if the file doesn't exist or was built from other inputs.
+     * @throws IOException if the file can not be read
+     */
+    static @Nullable ChunkCache open(@NotNull Path file, byte @NotNull [] key) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!read(channel, header, 0) || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                channel.close();
+                return null;
+            }
+            byte[] fileKey = new byte[KEY_SIZE];
+            header.get(fileKey);
+            int count = header.getInt();
+            // A count the file can't hold means the file is corrupt or truncated, and is rebuilt
+            long size = channel.size();
+            if (!Arrays.equals(fileKey, key) || count < 0 || (long) count * ENTRY_SIZE > size - HEADER_SIZE) {
+                channel.close();
+                return null;
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(count * ENTRY_SIZE);
+            if (!read(channel, table, HEADER_SIZE)) {
+                channel.close();
+                return null;
+            }
+            long[] chunkIndices = new long[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                chunkIndices[i] = table.getLong();
+                offsets[i] = table.getLong();
+                lengths[i] = table.getInt();
+                if (lengths[i] < 0 || offsets[i] < HEADER_SIZE + table.capacity() || offsets[i] > size - lengths[i]) {
+                    channel.close();
+                    return null;
+                }
+            }
+            return new ChunkCache(channel, chunkIndices, offsets, lengths);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the cache file.
+     * @throws IOException if the file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a cache file, replacing the existing file once every chunk has been written.
+     * @param file The cache file.
+     * @param key The key of the inputs.
+     * @param chunkIndices The indices of the chunks, sorted.
+     * @param builder The function building the data of a chunk.
+     * @throws IOException if the file can not be written
+     */
+    static void write(@NotNull Path file, byte @NotNull [] key, long @NotNull [] chunkIndices, @NotNull ChunkBuilder builder) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Chunks are written after the space reserved for the table, which is filled in once their sizes are known
+            ByteBuffer table = ByteBuffer.allocate(chunkIndices.length * ENTRY_SIZE);
+            long offset = HEADER_SIZE + (long) table.capacity();
+            for (long chunkIndex : chunkIndices) {
+                ChunkData chunk = new ChunkData();
+                builder.build(chunkIndex, chunk);
+                byte[] data = chunk.toBytes();
+                writeFully(channel, ByteBuffer.wrap(data), offset);
+                table.putLong(chunkIndex).putLong(offset).putInt(data.length);
+                offset += data.length;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).put(key).putInt(chunkIndices.length);
+            writeFully(channel, header.flip(), 0);
+            writeFully(channel, table.flip(), HEADER_SIZE);
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean read(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+
+    /**
+     * Checks whether the cache holds the given chunk.
+     * @param chunkIndex The chunk index.
+     * @return {@code true} if the chunk is cached.
+     */
+    boolean contains(long chunkIndex) {
+        return Arrays.binarySearch(chunkIndices, chunkIndex) >= 0;
+    }
+
+    /**
+     * Reads the given chunk into the given, empty, chunk.
+     * @param chunkIndex The chunk index.
+     * @param chunk The chunk.
+     * @return {@code true} if the chunk was cached.
+     * @throws IOException if the chunk can not be read, or its entry is truncated or corrupt
+     */
+    boolean load(long chunkIndex, @NotNull Chunk chunk) throws IOException {
+        int entry = Arrays.binarySearch(chunkIndices, chunkIndex);
+        if (entry < 0) return false;
+
+        ByteBuffer buffer = ByteBuffer.allocate(lengths[entry]);
+        if (!read(channel, buffer, offsets[entry])) throw new EOFException("Chunk cache is truncated");
+        try {
+            read(new DataInputStream(new ByteArrayInputStream(buffer.array())), chunk);
+        } catch (RuntimeException e) {
+            // Corrupt lengths and values surface as unchecked exceptions while parsing
+            throw new IOException("Invalid chunk in chunk cache", e);
+        }
+        return true;
+    }
+
+    private static void read(@NotNull DataInputStream input, @NotNull Chunk chunk) throws IOException {
+        int minSection = chunk.getMinSection();
+        int maxSection = chunk.getMaxSection();
+
+        int sections = input.readInt();
+        for (int i = 0; i < sections; i++) {
+            int sectionY = input.readInt();
+            short[] palette = new short[input.readShort()];
+            for (int j = 0; j < palette.length; j++) palette[j] = input.readShort();
+            int bitsPerEntry = input.readByte();
+            int wordCount = input.readInt();
+            // A section never needs more than 32 bits per block
+            if (wordCount < 0 || wordCount > 4096 / 2) throw new IOException("Invalid section in chunk cache");
+            long[] words = new long[wordCount];
+            for (int j = 0; j < words.length; j++) words[j] = input.readLong();
+            if (sectionY < minSection || sectionY >= maxSection) continue;
+
+            BlockStorage blocks;
+            try {
+                blocks = BlockStorage.wrap(16, 16, 16, palette, bitsPerEntry, LongBuffer.wrap(words));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid section in chunk cache", e);
+            }
+            chunk.getSection(sectionY).blockPalette().setAll(blocks::getStateId);
+        }
+
+        int blockEntities = input.readInt();
+        for (int i = 0; i < blockEntities; i++) {
+            int position = input.readInt();
+            short stateId = input.readShort();
+            String handler = input.readUTF();
+            int length = input.readInt();
+            if (length < 0) throw new IOException("Invalid block entity in chunk cache");
+            byte[] nbt = input.readNBytes(length);
+            if (nbt.length != length) throw new EOFException("Chunk cache is truncated");
+            int y = position >> 8;
+            if ((y >> 4) < minSection || (y >> 4) >= maxSection) continue;
+
+            Block block = Block.fromStateId(stateId);
+            if (block == null) continue;
+            if (nbt.length > 0) {
+                try (NBTReader reader = new NBTReader(new ByteArrayInputStream(nbt), CompressedProcesser.NONE)) {
+                    block = block.withNbt((NBTCompound) reader.readNamed().getSecond());
+                } catch (NBTException e) {
+                    throw new IOException("Invalid block entity in chunk cache", e);
+                }
+            }
+            if (!handler.isEmpty()) block = block.withHandler(MinecraftServer.getBlockManager().getHandlerOrDummy(handler));
+            chunk.setBlock((chunk.getChunkX() << 4) + (position & 15), y, (chunk.getChunkZ() << 4) + ((position >> 4) & 15), block);
+        }
+
+        int biomes = input.readInt();
+        for (int i = 0; i < biomes; i++) {
+            int cell = input.readInt();
+            String name = input.readUTF();
+            int y = (cell >> 4) << 2;
+            if ((y >> 4) < minSection || (y >> 4) >= maxSection) continue;
+
+            Biome biome = MinecraftServer.getBiomeManager().getByName(NamespaceID.from(name));
+            if (biome != null) chunk.setBiome((chunk.getChunkX() << 4) + ((cell & 3) << 2), y, (chunk.getChunkZ() << 4) + (((cell >> 2) & 3) << 2), biome);
+        }
+    }
+
+    /**
+     * Builds the data of a single chunk.
+     */
+    @FunctionalInterface
+    interface ChunkBuilder {
+
+        void build(long chunkIndex, @NotNull ChunkData chunk) throws IOException;
+
+    }
+
+    /**
+     * The blocks, block entities and biomes of a chunk, as they are being built. Blocks are set with absolute
+     * positions, and later blocks replace earlier ones.
+     */
+    static final class ChunkData implements Block.Setter {
+
+        private final Int2ObjectMap<short[]> sections = new Int2ObjectOpenHashMap<>();
+        private final Int2ObjectMap<Block> blockEntities = new Int2ObjectOpenHashMap<>();
+        private final Int2ObjectMap<Biome> biomes = new Int2ObjectOpenHashMap<>();
+
+        @Override
+        public void setBlock(int x, int y, int z, @NotNull Block block) {
+            short[] section = sections.computeIfAbsent(y >> 4, key -> new short[4096]);
+            section[((y & 15) << 8) | ((z & 15) << 4) | (x & 15)] = block.stateId();
+
+            int position = (y << 8) | ((z & 15) << 4) | (x & 15);
+            if (block.hasNbt() || block.handler() != null) blockEntities.put(position, block);
+            else blockEntities.remove(position);
+        }
+
+        void setBiome(int x, int y, int z, @NotNull Biome biome) {
+            biomes.put(((y >> 2) << 4) | (((z & 15) >> 2) << 2) | ((x & 15) >> 2), biome);
+        }
+
+        private byte @NotNull [] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            int[] sectionYs = sections.keySet().toIntArray();
+            Arrays.sort(sectionYs);
+            int written = 0;
+            ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+            DataOutputStream sectionOutput = new DataOutputStream(sectionBytes);
+            for (int sectionY : sectionYs) {
+                if (writeSection(sectionOutput, sectionY, sections.get(sectionY))) written++;
+            }
+            output.writeInt(written);
+            sectionBytes.writeTo(output);
+
+            output.writeInt(blockEntities.size());
+            for (Int2ObjectMap.Entry<Block> entry : blockEntities.int2ObjectEntrySet()) {
+                output.writeInt(entry.getIntKey());
+                Block block = entry.getValue();
+                output.writeShort(block.stateId());
+                output.writeUTF(block.handler() != null ? block.handler().getNamespaceId().asString() : "");
+                byte[] nbt = block.hasNbt() ? serialize(block.nbt()) : new byte[0];
+                output.writeInt(nbt.length);
+                output.write(nbt);
+            }
+
+            output.writeInt(biomes.size());
+            for (Int2ObjectMap.Entry<Biome> entry : biomes.int2ObjectEntrySet()) {
+                output.writeInt(entry.getIntKey());
+                output.writeUTF(entry.getValue().name().asString());
+            }
+            output.flush();
+            return bytes.toByteArray();
+        }
+
+        private static boolean writeSection(@NotNull DataOutputStream output, int sectionY, short @NotNull [] section) throws IOException {
+            // Sections of a new chunk are already air
+            boolean empty = true;
+            for (short stateId : section) {
+                if (stateId != 0) {
+                    empty = false;
+                    break;
+                }
+            }
+            if (empty) return false;
+
+            Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+            paletteIndices.defaultReturnValue(-1);
+            BlockStorage blocks = new BlockStorage(16, 16, 16, 2);
+            for (int index = 0; index < section.length; index++) {
+                int paletteIndex = paletteIndices.get(section[index]);
+                if (paletteIndex == -1) {
+                    paletteIndex = blocks.addPaletteEntry(section[index]);
+                    paletteIndices.put(section[index], paletteIndex);
+                }
+                blocks.set(index, paletteIndex);
+            }
+
+            output.writeInt(sectionY);
+            output.writeShort(blocks.getPaletteSize());
+            for (int i = 0; i < blocks.getPaletteSize(); i++) output.writeShort(blocks.getPaletteEntry(i));
+            output.writeByte(blocks.getBitsPerEntry());
+            output.writeInt(blocks.getWordCount());
+            for (int i = 0; i < blocks.getWordCount(); i++) output.writeLong(blocks.getWord(i));
+            return true;
+        }
+
+    }
+
+    private static byte @NotNull [] serialize(@NotNull NBTCompound nbt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTWriter writer = new NBTWriter(bytes, CompressedProcesser.NONE)) {
+            writer.writeNamed("", nbt);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Computes the key of the inputs a cache is built from, so a cache built from other inputs is never used.
+     */
+    static final class KeyBuilder {
+
+        private final @NotNull MessageDigest digest;
+        private final @NotNull ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        KeyBuilder(@NotNull PlacementOptions options) {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+
+            // State ids change between Minecraft versions
+            putInt(VERSION);
+            putInt(MinecraftServer.PROTOCOL_VERSION);
+
+            BitSet ignored = new BitSet();
+            for (int stateId = 0; stateId <= Short.MAX_VALUE; stateId++) {
+                if (options.isIgnored(stateId)) ignored.set(stateId);
+            }
+            putBytes(ignored.toByteArray());
+        }
+
+        /**
+         * Adds a schematic file, without reading the schematic itself.
+         * @param file The schematic file.
+         * @param position The position the schematic is placed at.
+         * @throws IOException if the file can not be read
+         */
+        void add(@NotNull Path file, @NotNull Point position) throws IOException {
+            putPosition(position);
+            try (InputStream input = Files.newInputStream(file)) {
+                byte[] chunk = new byte[65536];
+                int read;
+                while ((read = input.read(chunk)) >= 0) putBytes(chunk, read);
+            }
+        }
+
+        /**
+         * Adds a schematic, by its blocks and biomes.
+         * @param schematic The schematic.
+         * @param position The position the schematic is placed at.
+         */
+        void add(@NotNull Schematic schematic, @NotNull Point position) {
+            putPosition(position);
+            addSchematic(schematic);
+        }
+
+        private void addSchematic(@NotNull Schematic schematic) {
+            putInt(schematic.getWidth());
+            putInt(schematic.getHeight());
+            putInt(schematic.getLength());
+            putInt(schematic.getOffsetX());
+            putInt(schematic.getOffsetY());
+            putInt(schematic.getOffsetZ());
+
+            if (schematic instanceof TransformedSchematic view) {
+                // Views are hashed as the schematic they view and their transform, which determine their blocks
+                putBytes(view.getTransform().toString().getBytes(StandardCharsets.UTF_8));
+                addSchematic(view.getSchematic());
+            } else if (schematic instanceof AbstractSchematic abstractSchematic) {
+                // The storage already holds every block packed, so it is hashed as it is rather than block by block
+                BlockStorage blocks = abstractSchematic.getBlocks();
+                putInt(blocks.getPaletteSize());
+                for (int i = 0; i < blocks.getPaletteSize(); i++) putInt(blocks.getPaletteEntry(i));
+                putInt(blocks.getBitsPerEntry());
+                for (int word = 0; word < blocks.getWordCount(); word++) putLong(blocks.getWord(word));
+
+                BlockEntities blockEntities = abstractSchematic.getBlockEntities();
+                if (blockEntities != null) {
+                    for (int index : blockEntities.indices()) {
+                        putInt(index);
+                        NBTCompound data = blockEntities.get(index);
+                        if (data != null) putNbt(data);
+                    }
+                }
+            } else {
+                schematic.apply((x, y, z, block) -> {
+                    putInt(x);
+                    putInt(y);
+                    putInt(z);
+                    putInt(block.stateId());
+                    if (block.hasNbt()) putNbt(block.nbt());
+                });
+            }
+
+            if (!schematic.hasBiomes()) return;
+            for (int y = 0; y < schematic.getHeight(); y += 4) {
+                for (int z = 0; z < schematic.getLength(); z += 4) {
+                    for (int x = 0; x < schematic.getWidth(); x += 4) {
+                        Biome biome = schematic.getBiome(schematic.getOffsetX() + x, schematic.getOffsetY() + y, schematic.getOffsetZ() + z);
+                        putBytes((biome == null ? "" : biome.name().asString()).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        private void putPosition(@NotNull Point position) {
+            putInt(position.blockX());
+            putInt(position.blockY());
+            putInt(position.blockZ());
+        }
+
+        private void putNbt(@NotNull NBTCompound nbt) {
+            try {
+                putBytes(serialize(nbt));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void putLong(long value) {
+            if (buffer.remaining() < Long.BYTES) flush();
+            buffer.putLong(value);
+        }
+
+        private void putInt(int value) {
+            if (buffer.remaining() < Integer.BYTES) flush();
+            buffer.putInt(value);
+        }
+
+        private void putBytes(byte @NotNull [] bytes) {
+            putInt(bytes.length);
+            putBytes(bytes, bytes.length);
+        }
+
+        private void putBytes(byte @NotNull [] bytes, int length) {
+            flush();
+            digest.update(bytes, 0, length);
+        }
+
+        private void flush() {
+            digest.update(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        byte @NotNull [] build() {
+            flush();
+            return digest.digest();
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.schematic.PlacementOptions;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.entity.Player;
+import net.minestom.server.instance.Instance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Work queue of the chunks a build touches, ordered by distance to the focus points of the build.
+ * <br><br>
+ * Chunks are numbered {@code (chunkX - minChunkX) * chunksZ + (chunkZ - minChunkZ)}. Without focus points they are
+ * placed in that order, otherwise the chunks closest to any focus point come first. At most
+ * {@link PlacementOptions#getMaxConcurrentChunks()} chunks are in progress at once, a new chunk is only started once
+ * another one has been placed.
+ */
+final class ChunkQueue {
+
+    private final int[] order;
+    private final @NotNull IntFunction<CompletableFuture<?>> task;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile @Nullable Throwable error;
+
+    private ChunkQueue(int[] order, @NotNull IntFunction<CompletableFuture<?>> task) {
+        this.order = order;
+        this.task = task;
+        this.remaining = new AtomicInteger(order.length);
+    }
+
+    /**
+     * Runs the given task for every chunk, in order of distance to the focus points of the options.
+     * @param instance The instance the build is placed in.
+     * @param minChunkX The lowest chunk x coordinate.
+     * @param minChunkZ The lowest chunk z coordinate.
+     * @param chunksX The amount of chunks along the x axis.
+     * @param chunksZ The amount of chunks along the z axis.
+     * @param options The placement options.
+     * @param task The task, given the number of the chunk and completing once the chunk has been placed.
+     * @return A future completed once every task has completed, exceptionally if any of them failed.
+     */
+    static @NotNull CompletableFuture<Void> run(@NotNull Instance instance, int minChunkX, int minChunkZ, int chunksX, int chunksZ,
+                                                @NotNull PlacementOptions options, @NotNull IntFunction<CompletableFuture<?>> task) {
+        ChunkQueue queue = new ChunkQueue(order(instance, minChunkX, minChunkZ, chunksX, chunksZ, options), task);
+        if (queue.order.length == 0) return CompletableFuture.completedFuture(null);
+
+        for (int i = 0; i < Math.min(options.getMaxConcurrentChunks(), queue.order.length); i++) queue.drain();
+        return queue.completion;
+    }
+
+    /**
+     * Orders the chunks by distance to the focus points of the options.
+     * @param instance The instance the build is placed in.
+     * @param minChunkX The lowest chunk x coordinate.
+     * @param minChunkZ The lowest chunk z coordinate.
+     * @param chunksX The amount of chunks along the x axis.
+     * @param chunksZ The amount of chunks along the z axis.
+     * @param options The placement options.
+     * @return The numbers of the chunks, closest first.
+     */
+    static int[] order(@NotNull Instance instance, int minChunkX, int minChunkZ, int chunksX, int chunksZ, @NotNull PlacementOptions options) {
+        List<Point> focus = new ArrayList<>(options.getFocus());
+        if (options.isFocusPlayers()) {
+            for (Player player : instance.getPlayers()) focus.add(player.getPosition());
+        }
+
+        int[] order = new int[chunksX * chunksZ];
+        if (focus.isEmpty()) {
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            return order;
+        }
+
+        // Distances are sorted together with the chunk numbers, chunks further than ~46000 blocks away are tied
+        long[] keys = new long[order.length];
+        for (int i = 0; i < keys.length; i++) {
+            double centerX = ((minChunkX + i / chunksZ) << 4) + 8;
+            double centerZ = ((minChunkZ + i % chunksZ) << 4) + 8;
+            double distance = Double.MAX_VALUE;
+            for (Point point : focus) {
+                double dx = point.x() - centerX;
+                double dz = point.z() - centerZ;
+                distance = Math.min(distance, dx * dx + dz * dz);
+            }
+            keys[i] = (long) Math.min(distance, Integer.MAX_VALUE) << 32 | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    private void drain() {
+        int index;
+        while ((index = next.getAndIncrement()) < order.length) {
+            CompletableFuture<?> future;
+            try {
+                future = task.apply(order[index]);
+            } catch (Throwable e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            // Chunks placed straight away are followed in this loop, rather than nesting a callback per chunk
+            if (future.isDone()) {
+                future.whenComplete((v, e) -> complete(e));
+            } else {
+                future.whenComplete((v, e) -> {
+                    complete(e);
+                    drain();
+                });
+                return;
+            }
+        }
+    }
+
+    private void complete(@Nullable Throwable e) {
+        if (e != null && error == null) error = e;
+        if (remaining.decrementAndGet() > 0) return;
+
+        Throwable error = this.error;
+        if (error != null) completion.completeExceptionally(error);
+        else completion.complete(null);
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+
+/**
+ * Previous blocks of the part of a chunk a schematic was placed in.
+ * <br><br>
+ * Blocks are captured from the section palettes as they are placed, and packed into a {@link BlockStorage} covering
+ * the placed bounds. Palette index 0 marks blocks that were not placed, so only those are restored. Block entities
+ * are the only blocks kept as {@link Block}s, to preserve their data.
+ */
+final class ChunkSnapshot {
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final @NotNull BlockStorage blocks;
+    private @Nullable Int2ObjectMap<Block> blockEntities;
+    private int count;
+
+    private @Nullable Int2IntMap paletteIndices = new Int2IntOpenHashMap();
+    private @Nullable BitSet blockEntityEntries = new BitSet();
+
+    ChunkSnapshot(int chunkX, int chunkZ, @NotNull Point min, @NotNull Point max) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.minX = min.blockX();
+        this.minY = min.blockY();
+        this.minZ = min.blockZ();
+        this.blocks = new BlockStorage(max.blockX() - minX + 1, max.blockY() - minY + 1, max.blockZ() - minZ + 1, 2);
+        this.blocks.addPaletteEntry((short) -1);
+    }
+
+    /**
+     * Wraps the given block setter, capturing the current block of the chunk before every block is placed.
+     * @param chunk The chunk.
+     * @param setter The block setter.
+     * @return The capturing block setter.
+     */
+    @NotNull Block.Setter capture(@NotNull Chunk chunk, @NotNull Block.Setter setter) {
+        return (x, y, z, block) -> {
+            capture(chunk, x, y, z);
+            setter.setBlock(x, y, z, block);
+        };
+    }
+
+    private void capture(@NotNull Chunk chunk, int x, int y, int z) {
+        int section = y >> 4;
+        if (section < chunk.getMinSection() || section >= chunk.getMaxSection()) return;
+        int index = blocks.index(x - minX, y - minY, z - minZ);
+        if (blocks.get(index) != 0) return;
+
+        int stateId = chunk.getSection(section).blockPalette().get(x & 15, y & 15, z & 15);
+        int paletteIndex = paletteIndices.get(stateId);
+        if (paletteIndex == 0) {
+            paletteIndex = blocks.addPaletteEntry((short) stateId);
+            paletteIndices.put(stateId, paletteIndex);
+            Block block = Block.fromStateId((short) stateId);
+            if (block != null && block.registry().isBlockEntity()) blockEntityEntries.set(paletteIndex);
+        }
+        blocks.set(index, paletteIndex);
+        count++;
+
+        // The palette only holds the state, block entities need their data as well
+        if (blockEntityEntries.get(paletteIndex)) {
+            Block block = chunk.getBlock(x, y, z, Block.Getter.Condition.NONE);
+            if (block != null && (block.hasNbt() || block.handler() != null)) {
+                if (blockEntities == null) blockEntities = new Int2ObjectOpenHashMap<>();
+                blockEntities.put(index, block);
+            }
+        }
+    }
+
+    /**
+     * Drops the state only needed while capturing.
+     */
+    void finish() {
+        this.paletteIndices = null;
+        this.blockEntityEntries = null;
+    }
+
+    /**
+     * Places the captured blocks back.
+     * @param setter The block setter.
+     */
+    void restore(@NotNull Block.Setter setter) {
+        Block[] palette = new Block[blocks.getPaletteSize()];
+        for (int i = 1; i < palette.length; i++) palette[i] = Block.fromStateId(blocks.getPaletteEntry(i));
+
+        int width = blocks.getWidth();
+        int length = blocks.getLength();
+        int index = 0;
+        for (int y = 0; y < blocks.getHeight(); y++) {
+            for (int z = 0; z < length; z++) {
+                for (int x = 0; x < width; x++, index++) {
+                    int paletteIndex = blocks.get(index);
+                    if (paletteIndex == 0) continue;
+                    Block block = blockEntities != null ? blockEntities.get(index) : null;
+                    if (block == null) block = palette[paletteIndex];
+                    if (block != null) setter.setBlock(minX + x, minY + y, minZ + z, block);
+                }
+            }
+        }
+    }
+
+    int getChunkX() {
+        return chunkX;
+    }
+
+    int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Gets the amount of captured blocks.
+     * @return The amount of blocks.
+     */
+    int getBlockCount() {
+        return count;
+    }
+
+    /**
+     * Estimates the memory used by the captured blocks.
+     * @return The approximate size in bytes.
+     */
+    long getMemoryUsage() {
+        long size = (long) blocks.getWordCount() * Long.BYTES + (long) blocks.getPaletteSize() * Short.BYTES;
+        if (blockEntities != null) size += blockEntities.size() * 64L;
+        return size;
+    }
+
+}
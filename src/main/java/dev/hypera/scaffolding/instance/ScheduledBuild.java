@@ -0,0 +1,293 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.metrics.Metrics;
+import dev.hypera.scaffolding.metrics.MetricsListener;
+import dev.hypera.scaffolding.region.Region;
+import dev.hypera.scaffolding.schematic.PlacementOptions;
+import dev.hypera.scaffolding.schematic.Schematic;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.timer.Task;
+import net.minestom.server.timer.TaskSchedule;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle of a schematic build that is spread across ticks.
+ * <br><br>
+ * The build is split into one job per chunk section, which are placed on the tick thread until the block or time
+ * budget of the {@link PlacementOptions} is used up, and continued in the next tick. A chunk is only sent to its
+ * viewers once all of its sections have been placed. Chunks closest to the focus points of the options are placed
+ * first.
+ */
+public final class ScheduledBuild {
+
+    private static final int LOAD_AHEAD = 4;
+
+    private final @NotNull Schematic schematic;
+    private final @NotNull Instance instance;
+    private final @NotNull Point position;
+    private final @NotNull PlacementOptions options;
+    private final @NotNull Region region;
+
+    private final int minX, minY, minZ, maxX, maxY, maxZ;
+    private final int minChunkX, minChunkZ, chunksZ, chunks;
+    private int[] order;
+    private final int sectionsPerChunk;
+    private final int totalSections;
+    private final List<CompletableFuture<Chunk>> loading = new ArrayList<>();
+
+    private final CompletableFuture<Region> completion = new CompletableFuture<>();
+    private final List<Milestone> milestones = new ArrayList<>();
+    private Throwable failure;
+    private Task task;
+
+    private int chunk;
+    private int section;
+    private int columnBlocks;
+    private volatile int completedSections;
+    private volatile long placedBlocks;
+    private long startNanos;
+
+    ScheduledBuild(@NotNull Schematic schematic, @NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        this.schematic = schematic;
+        this.instance = instance;
+        this.position = position;
+        this.options = options;
+        this.region = new Region(instance, position, position.add(schematic.getWidth(), schematic.getHeight(), schematic.getLength()));
+
+        this.minX = position.blockX() + schematic.getOffsetX();
+        this.minY = position.blockY() + schematic.getOffsetY();
+        this.minZ = position.blockZ() + schematic.getOffsetZ();
+        this.maxX = minX + schematic.getWidth() - 1;
+        this.maxY = minY + schematic.getHeight() - 1;
+        this.maxZ = minZ + schematic.getLength() - 1;
+
+        this.minChunkX = minX >> 4;
+        this.minChunkZ = minZ >> 4;
+        this.chunksZ = (maxZ >> 4) - minChunkZ + 1;
+        boolean empty = maxX < minX || maxY < minY || maxZ < minZ;
+        this.chunks = empty ? 0 : ((maxX >> 4) - minChunkX + 1) * chunksZ;
+        this.sectionsPerChunk = empty ? 0 : (maxY >> 4) - (minY >> 4) + 1;
+        this.totalSections = chunks * sectionsPerChunk;
+        completion.whenComplete((region, e) -> {
+            if (e != null) failMilestones(e);
+        });
+    }
+
+    void start() {
+        if (totalSections == 0) {
+            completion.complete(region);
+            return;
+        }
+        this.order = ChunkQueue.order(instance, minChunkX, minChunkZ, chunks / chunksZ, chunksZ, options);
+        this.startNanos = System.nanoTime();
+        this.task = MinecraftServer.getSchedulerManager().submitTask(this::tick);
+    }
+
+    private @NotNull TaskSchedule tick() {
+        if (completion.isDone()) return TaskSchedule.stop();
+
+        try {
+            return placeTick();
+        } catch (Throwable e) {
+            completion.completeExceptionally(e);
+            return TaskSchedule.stop();
+        }
+    }
+
+    private @NotNull TaskSchedule placeTick() {
+        long start = System.nanoTime();
+        int blocks = 0;
+        while (chunk < chunks) {
+            if (blocks >= options.getMaxBlocksPerTick() || System.nanoTime() - start >= options.getMaxNanosPerTick()) break;
+
+            CompletableFuture<Chunk> future = load(chunk);
+            for (int i = 1; i <= LOAD_AHEAD && chunk + i < chunks; i++) load(chunk + i);
+            if (!future.isDone()) break;
+
+            Chunk loaded = future.getNow(null);
+            if (loaded == null) {
+                // Chunk loading is disabled and the chunk isn't loaded
+                completeSections(sectionsPerChunk - section);
+                nextChunk();
+                continue;
+            }
+
+            int placed = placeSection(loaded);
+            blocks += placed;
+            columnBlocks += placed;
+            completeSections(1);
+            if (++section == sectionsPerChunk) {
+                // Chunks nothing was placed in, such as unchanged chunks, don't need to be sent again
+                if (columnBlocks > 0) loaded.sendChunk();
+                nextChunk();
+            }
+        }
+        this.placedBlocks += blocks;
+
+        if (chunk == chunks) {
+            if (Metrics.isEnabled()) Metrics.getListener().onBuild(new MetricsListener.Build(placedBlocks, chunks, System.nanoTime() - startNanos));
+            completion.complete(region);
+            return TaskSchedule.stop();
+        }
+        return TaskSchedule.nextTick();
+    }
+
+    private @NotNull CompletableFuture<Chunk> load(int chunk) {
+        int index = chunk - this.chunk;
+        while (loading.size() <= index) {
+            int next = this.chunk + loading.size();
+            loading.add(instance.loadOptionalChunk(minChunkX + order[next] / chunksZ, minChunkZ + order[next] % chunksZ));
+        }
+        return loading.get(index);
+    }
+
+    private void nextChunk() {
+        loading.remove(0);
+        chunk++;
+        section = 0;
+        columnBlocks = 0;
+    }
+
+    private int placeSection(@NotNull Chunk chunk) {
+        int chunkX = minChunkX + order[this.chunk] / chunksZ;
+        int chunkZ = minChunkZ + order[this.chunk] % chunksZ;
+        int sectionY = (minY >> 4) + section;
+        Point min = new Vec(Math.max(chunkX << 4, minX), Math.max(sectionY << 4, minY), Math.max(chunkZ << 4, minZ));
+        Point max = new Vec(Math.min((chunkX << 4) + 15, maxX), Math.min((sectionY << 4) + 15, maxY), Math.min((chunkZ << 4) + 15, maxZ));
+
+        synchronized (chunk) {
+            if (options.isOnlyChanged()) {
+                ChangedBlocks changes = new ChangedBlocks(chunk);
+                schematic.apply(changes, position, min, max, options);
+                changes.apply(chunk);
+                return changes.size();
+            }
+
+            int[] blocks = new int[1];
+            schematic.apply((x, y, z, block) -> {
+                chunk.setBlock(x, y, z, block);
+                blocks[0]++;
+            }, position, min, max, options);
+            return blocks[0];
+        }
+    }
+
+    private void completeSections(int sections) {
+        this.completedSections += sections;
+        synchronized (milestones) {
+            Iterator<Milestone> iterator = milestones.iterator();
+            while (iterator.hasNext()) {
+                Milestone milestone = iterator.next();
+                if (getProgress() >= milestone.progress) {
+                    milestone.future.complete(null);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void failMilestones(@NotNull Throwable cause) {
+        synchronized (milestones) {
+            this.failure = cause;
+            for (Milestone milestone : milestones) fail(milestone.future, cause);
+            milestones.clear();
+        }
+    }
+
+    private static void fail(@NotNull CompletableFuture<Void> future, @NotNull Throwable cause) {
+        if (cause instanceof CancellationException) future.cancel(false);
+        else future.completeExceptionally(cause);
+    }
+
+    /**
+     * Gets the progress of this build.
+     * @return The fraction of chunk sections that have been placed, between 0 and 1.
+     */
+    public double getProgress() {
+        return totalSections == 0 ? 1.0 : (double) completedSections / totalSections;
+    }
+
+    /**
+     * Gets a future that is completed once the given fraction of this build has been placed.
+     * The future is cancelled if the build is cancelled first, and fails with the same cause if the build fails first.
+     * @param progress The fraction, between 0 and 1.
+     * @return The future.
+     */
+    public @NotNull CompletableFuture<Void> progress(double progress) {
+        synchronized (milestones) {
+            if (getProgress() >= progress) return CompletableFuture.completedFuture(null);
+            if (failure != null) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                fail(future, failure);
+                return future;
+            }
+            Milestone milestone = new Milestone(progress, new CompletableFuture<>());
+            milestones.add(milestone);
+            return milestone.future;
+        }
+    }
+
+    /**
+     * Gets a future that is completed with the region of the schematic once every chunk section has been placed.
+     * @return The future.
+     */
+    public @NotNull CompletableFuture<Region> completion() {
+        return completion;
+    }
+
+    public int getCompletedSections() {
+        return completedSections;
+    }
+
+    public int getTotalSections() {
+        return totalSections;
+    }
+
+    public long getPlacedBlocks() {
+        return placedBlocks;
+    }
+
+    /**
+     * Stops this build, leaving the chunk sections that have been placed so far.
+     * The completion future and any pending {@link #progress(double)} futures are cancelled.
+     */
+    public void cancel() {
+        completion.cancel(false);
+        if (task != null) task.cancel();
+    }
+
+    private record Milestone(double progress, @NotNull CompletableFuture<Void> future) {}
+
+}
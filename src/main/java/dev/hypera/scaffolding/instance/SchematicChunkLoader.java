@@ -22,58 +22,118 @@
  */
 package dev.hypera.scaffolding.instance;
 
+import dev.hypera.scaffolding.metrics.Metrics;
+import dev.hypera.scaffolding.metrics.MetricsListener;
+import dev.hypera.scaffolding.schematic.PlacementOptions;
 import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.schematic.SchematicReader;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.Chunk;
 import net.minestom.server.instance.DynamicChunk;
 import net.minestom.server.instance.IChunkLoader;
 import net.minestom.server.instance.Instance;
 import net.minestom.server.instance.batch.ChunkBatch;
 import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.palette.Palette;
 import net.minestom.server.utils.chunk.ChunkUtils;
+import net.minestom.server.world.biomes.Biome;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
 import space.vectrix.flare.fastutil.Long2ObjectSyncMap;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 
 // TODO: Entities?
 @SuppressWarnings("UnstableApiUsage")
-public class SchematicChunkLoader implements IChunkLoader {
+public class SchematicChunkLoader implements IChunkLoader, AutoCloseable {
 
     private final @NotNull Function<@NotNull Chunk, @NotNull CompletableFuture<Void>> saveHandler;
     private final Long2ObjectMap<ChunkBatch> batches = Long2ObjectSyncMap.hashmap();
+    private final Long2ObjectMap<List<Placement>> placementsByChunk = new Long2ObjectOpenHashMap<>();
+    private final boolean lazy;
+    private final @NotNull PlacementOptions options;
+    private final @Nullable ChunkCache cache;
+    private final @NotNull List<Source> sources;
+    private volatile SchematicChunkLoader fallback;
 
     private SchematicChunkLoader(
             @NotNull Function<@NotNull Chunk, @NotNull CompletableFuture<Void>> saveHandler,
-            @NotNull Collection<Schematic> schematics,
-            int offsetX,
-            int offsetY,
-            int offsetZ
+            @NotNull Collection<Placement> placements,
+            boolean lazy,
+            @NotNull PlacementOptions options
     ) {
         this.saveHandler = saveHandler;
+        this.lazy = lazy;
+        this.options = options;
+        this.cache = null;
+        this.sources = List.of();
 
-        // The block setter used for Schematic#apply
-        Block.Setter setter = (x, y, z, block) -> {
-            int chunkX = ChunkUtils.getChunkCoordinate(x);
-            int chunkZ = ChunkUtils.getChunkCoordinate(z);
-            long index = ChunkUtils.getChunkIndex(chunkX, chunkZ);
+        index(placements);
+        if (lazy) return;
+        buildBatches();
+    }
 
-            // Get the batch, create it if it doesn't exist
-            ChunkBatch batch = batches.computeIfAbsent(index, key -> new ChunkBatch());
+    private SchematicChunkLoader(
+            @NotNull Function<@NotNull Chunk, @NotNull CompletableFuture<Void>> saveHandler,
+            @NotNull ChunkCache cache,
+            @NotNull List<Source> sources,
+            @NotNull PlacementOptions options
+    ) {
+        this.saveHandler = saveHandler;
+        this.lazy = false;
+        this.options = options;
+        this.cache = cache;
+        this.sources = sources;
+    }
 
-            // Add the block to the batch
-            batch.setBlock(x + offsetX, y + offsetY, z + offsetZ, block);
-        };
+    private void index(@NotNull Collection<Placement> placements) {
+        // Index the placements by the chunks they touch, keeping the order they were added in
+        for (Placement placement : placements) {
+            Schematic schematic = placement.schematic();
+            int minX = placement.position().blockX() + schematic.getOffsetX();
+            int minZ = placement.position().blockZ() + schematic.getOffsetZ();
+            int maxX = minX + schematic.getWidth() - 1;
+            int maxZ = minZ + schematic.getLength() - 1;
+            for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    placementsByChunk.computeIfAbsent(ChunkUtils.getChunkIndex(chunkX, chunkZ), key -> new ArrayList<>()).add(placement);
+                }
+            }
+        }
+    }
 
-        // Apply the schematics
-        for (Schematic schematic : schematics) {
-            schematic.apply(setter);
+    private void buildBatches() {
+        // Build the batch of every chunk up front
+        for (Long2ObjectMap.Entry<List<Placement>> entry : placementsByChunk.long2ObjectEntrySet()) {
+            int chunkX = ChunkUtils.getChunkCoordX(entry.getLongKey());
+            int chunkZ = ChunkUtils.getChunkCoordZ(entry.getLongKey());
+            ChunkBatch batch = new ChunkBatch();
+            for (Placement placement : entry.getValue()) {
+                int minY = placement.minY();
+                applyColumn(batch, placement, chunkX, chunkZ, minY, minY + placement.schematic().getHeight() - 1);
+            }
+            batches.put(entry.getLongKey(), batch);
         }
+
+        // Batches can't hold biomes, so only placements with biomes are kept around
+        placementsByChunk.values().removeIf(chunkPlacements -> {
+            chunkPlacements.removeIf(placement -> !placement.schematic().hasBiomes());
+            return chunkPlacements.isEmpty();
+        });
     }
 
     /**
@@ -84,35 +144,231 @@ public class SchematicChunkLoader implements IChunkLoader {
         return new Builder();
     }
 
+    private void writeCache(@NotNull Path file, byte @NotNull [] key) throws IOException {
+        long[] chunkIndices = placementsByChunk.keySet().toLongArray();
+        Arrays.sort(chunkIndices);
+        ChunkCache.write(file, key, chunkIndices, (chunkIndex, chunk) -> {
+            int chunkX = ChunkUtils.getChunkCoordX(chunkIndex);
+            int chunkZ = ChunkUtils.getChunkCoordZ(chunkIndex);
+            List<Placement> placements = placementsByChunk.get(chunkIndex);
+            for (Placement placement : placements) {
+                int minY = placement.minY();
+                applyColumn(chunk, placement, chunkX, chunkZ, minY, minY + placement.schematic().getHeight() - 1);
+            }
+            applyBiomes(chunkX, chunkZ, Integer.MIN_VALUE, Integer.MAX_VALUE, placements, chunk::setBiome);
+        });
+    }
+
     @Override
     public @NotNull CompletableFuture<@Nullable Chunk> loadChunk(@NotNull Instance instance, int chunkX, int chunkZ) {
         long index = ChunkUtils.getChunkIndex(chunkX, chunkZ);
-        ChunkBatch batch = batches.get(index);
+        if (cache != null) return loadCachedChunk(instance, index, chunkX, chunkZ);
+        List<Placement> placements = lazy ? placementsByChunk.get(index) : null;
+        ChunkBatch batch = lazy ? (placements == null ? null : new ChunkBatch()) : batches.get(index);
 
         if (batch == null) {
             return CompletableFuture.completedFuture(null);
         }
 
+        boolean measured = Metrics.isEnabled();
+        long start = measured ? System.nanoTime() : 0;
         DynamicChunk chunk = new DynamicChunk(instance, chunkX, chunkZ);
+        if (lazy) fillChunk(chunk, batch, placements);
+        else placements = placementsByChunk.get(index);
+        if (placements != null) {
+            applyBiomes(chunkX, chunkZ, chunk.getMinSection() << 4, (chunk.getMaxSection() << 4) - 1, placements, chunk::setBiome);
+        }
+
         CompletableFuture<Chunk> future = new CompletableFuture<>();
-        batch.apply(instance, chunk, future::complete);
+        if (!measured) {
+            batch.apply(instance, chunk, future::complete);
+            return future;
+        }
 
+        long applyStart = System.nanoTime();
+        int schematics = placements != null ? placements.size() : 0;
+        batch.apply(instance, chunk, loaded -> {
+            Metrics.getListener().onChunkLoad(new MetricsListener.ChunkLoad(chunkX, chunkZ, schematics, applyStart - start,
+                    System.nanoTime() - applyStart));
+            future.complete(loaded);
+        });
         return future;
     }
 
+    private @NotNull CompletableFuture<@Nullable Chunk> loadCachedChunk(@NotNull Instance instance, long index, int chunkX, int chunkZ) {
+        boolean measured = Metrics.isEnabled();
+        long start = measured ? System.nanoTime() : 0;
+        DynamicChunk chunk = new DynamicChunk(instance, chunkX, chunkZ);
+        try {
+            if (!cache.load(index, chunk)) return CompletableFuture.completedFuture(null);
+        } catch (ClosedChannelException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (IOException e) {
+            // A chunk that can't be read from the cache is built from its schematics instead
+            try {
+                return fallback().loadChunk(instance, chunkX, chunkZ);
+            } catch (IOException fallbackException) {
+                fallbackException.addSuppressed(e);
+                return CompletableFuture.failedFuture(fallbackException);
+            }
+        }
+
+        if (measured) Metrics.getListener().onChunkLoad(new MetricsListener.ChunkLoad(chunkX, chunkZ, 0, System.nanoTime() - start, 0));
+        return CompletableFuture.completedFuture(chunk);
+    }
+
+    private void fillChunk(@NotNull Chunk chunk, @NotNull ChunkBatch batch, @NotNull List<Placement> placements) {
+        int chunkX = chunk.getChunkX();
+        int chunkZ = chunk.getChunkZ();
+        int minSection = chunk.getMinSection();
+        int maxSection = chunk.getMaxSection();
+
+        // Sections fully covered by a schematic are written straight into their palette. The topmost schematic that
+        // does so hides every schematic below it, so those are skipped for the section
+        int[] directLayers = new int[maxSection - minSection];
+        Arrays.fill(directLayers, -1);
+        for (int section = minSection; section < maxSection; section++) {
+            Palette palette = chunk.getSection(section).blockPalette();
+            for (int layer = placements.size() - 1; layer >= 0; layer--) {
+                Placement placement = placements.get(layer);
+                if (placement.schematic().applySection(palette, placement.position(), chunkX, section, chunkZ, options)) {
+                    directLayers[section - minSection] = layer;
+                    break;
+                }
+            }
+        }
+
+        // Everything else goes through the batch, in the order the schematics were added
+        for (int layer = 0; layer < placements.size(); layer++) {
+            Placement placement = placements.get(layer);
+            int minY = placement.minY();
+            int maxY = minY + placement.schematic().getHeight() - 1;
+            for (int section = Math.max(minY >> 4, minSection); section <= Math.min(maxY >> 4, maxSection - 1); section++) {
+                if (directLayers[section - minSection] >= layer) continue;
+                applyColumn(batch, placement, chunkX, chunkZ, Math.max(section << 4, minY), Math.min((section << 4) + 15, maxY));
+            }
+        }
+    }
+
+    private static void applyBiomes(int chunkX, int chunkZ, int chunkMinY, int chunkMaxY, @NotNull List<Placement> placements,
+                                    @NotNull BiomeSetter setter) {
+        int chunkMinX = chunkX << 4;
+        int chunkMinZ = chunkZ << 4;
+
+        for (Placement placement : placements) {
+            Schematic schematic = placement.schematic();
+            if (!schematic.hasBiomes()) continue;
+
+            Point position = placement.position();
+            int minX = position.blockX() + schematic.getOffsetX();
+            int minY = position.blockY() + schematic.getOffsetY();
+            int minZ = position.blockZ() + schematic.getOffsetZ();
+            int maxX = Math.min(minX + schematic.getWidth() - 1, chunkMinX + 15);
+            int maxY = Math.min(minY + schematic.getHeight() - 1, chunkMaxY);
+            int maxZ = Math.min(minZ + schematic.getLength() - 1, chunkMinZ + 15);
+
+            // Biomes are stored per 4x4x4 cell, every cell the schematic overlaps takes the biome of its first block
+            for (int y = Math.max(minY, chunkMinY) & ~3; y <= maxY; y += 4) {
+                int sampleY = Math.max(y, minY);
+                for (int z = Math.max(minZ, chunkMinZ) & ~3; z <= maxZ; z += 4) {
+                    int sampleZ = Math.max(z, minZ);
+                    for (int x = Math.max(minX, chunkMinX) & ~3; x <= maxX; x += 4) {
+                        int sampleX = Math.max(x, minX);
+                        Biome biome = schematic.getBiome(sampleX - position.blockX(), sampleY - position.blockY(), sampleZ - position.blockZ());
+                        if (biome != null) setter.setBiome(sampleX, sampleY, sampleZ, biome);
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyColumn(@NotNull Block.Setter setter, @NotNull Placement placement, int chunkX, int chunkZ, int minY, int maxY) {
+        Point min = new Vec(chunkX << 4, minY, chunkZ << 4);
+        Point max = new Vec((chunkX << 4) + 15, maxY, (chunkZ << 4) + 15);
+        placement.schematic().apply(setter, placement.position(), min, max, options);
+    }
+
+    private @NotNull SchematicChunkLoader fallback() throws IOException {
+        SchematicChunkLoader fallback = this.fallback;
+        if (fallback != null) return fallback;
+
+        synchronized (this) {
+            if (this.fallback != null) return this.fallback;
+            // The schematics are only read once the cache fails, so a loader with a valid cache never reads them
+            return this.fallback = new SchematicChunkLoader(saveHandler, Builder.resolve(sources), true, options);
+        }
+    }
+
+    @Override
+    public boolean supportsParallelLoading() {
+        // Lazy chunks are built from the shared, read-only schematics only, and cached chunks with positioned reads
+        return lazy || cache != null;
+    }
+
     @Override
     public @NotNull CompletableFuture<Void> saveChunk(@NotNull Chunk chunk) {
         return saveHandler.apply(chunk);
     }
 
+    /**
+     * Closes the cache file of this loader, if it has one. Should be called once the instance using this loader has
+     * been unregistered, chunks can no longer be loaded from the cache afterwards.
+     * @throws UncheckedIOException if the cache file can not be closed
+     */
+    @Override
+    public void close() {
+        if (cache == null) return;
+        try {
+            cache.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BiomeSetter {
+
+        void setBiome(int x, int y, int z, @NotNull Biome biome);
+
+    }
+
+    private record Placement(@NotNull Schematic schematic, @NotNull Point position) {
+
+        private int minY() {
+            return position.blockY() + schematic.getOffsetY();
+        }
+
+    }
+
+    /**
+     * A schematic added to the builder, which may still have to be read from its file.
+     */
+    private record Source(@Nullable Schematic schematic, @Nullable Path file, @NotNull Point position) {
+
+        private @NotNull Placement resolve() throws IOException {
+            if (schematic != null) return new Placement(schematic, position);
+            try {
+                Schematic read = SchematicReader.read(file);
+                if (read == null) throw new IOException("Invalid Schematic: Unknown format: " + file);
+                return new Placement(read, position);
+            } catch (NBTException e) {
+                throw new IOException("Invalid Schematic: " + file, e);
+            }
+        }
+
+    }
+
     public static class Builder {
 
-        private final List<Schematic> schematics = new ArrayList<>();
+        private final List<Source> sources = new ArrayList<>();
         private @NotNull Function<@NotNull Chunk, @NotNull CompletableFuture<Void>> handler = chunk ->
                 CompletableFuture.completedFuture(null);
         private int xOffset;
         private int yOffset;
         private int zOffset;
+        private boolean lazy;
+        private @NotNull PlacementOptions options = PlacementOptions.DEFAULT;
+        private @Nullable Path cacheFile;
 
         private Builder() {}
 
@@ -125,12 +381,52 @@ public class SchematicChunkLoader implements IChunkLoader {
          * @param schematic The schematic to add.
          * @return This builder.
          */
-        // TODO: Add a way to position schematics within the instance.
         public @NotNull Builder addSchematic(@NotNull Schematic schematic) {
-            schematics.add(schematic);
+            return addSchematic(schematic, Vec.ZERO);
+        }
+
+        /**
+         * Adds a schematic to this chunk loader, placed at the given position.
+         * <br><br>
+         * Note that schematics are loaded in the order they are added, so where schematics overlap, the last added
+         * schematic wins. Loading a chunk only touches the schematics that overlap it.
+         * @param schematic The schematic to add.
+         * @param position The position to place the schematic at, on top of the offset of this chunk loader.
+         * @return This builder.
+         */
+        public @NotNull Builder addSchematic(@NotNull Schematic schematic, @NotNull Point position) {
+            sources.add(new Source(schematic, null, position));
             return this;
         }
 
+        /**
+         * Adds a schematic file to this chunk loader, placed at the given position.
+         * <br><br>
+         * The file is read when the chunk loader is built, unless every chunk can be served from the
+         * {@link #cache(Path) cache}.
+         * @param file The schematic file.
+         * @param position The position to place the schematic at, on top of the offset of this chunk loader.
+         * @return This builder.
+         * @see #addSchematic(Schematic, Point)
+         */
+        public @NotNull Builder addSchematic(@NotNull Path file, @NotNull Point position) {
+            sources.add(new Source(null, file, position));
+            return this;
+        }
+
+        /**
+         * Adds a schematic to this chunk loader, placed at the given position.
+         * @param schematic The schematic to add.
+         * @param x The x position.
+         * @param y The y position.
+         * @param z The z position.
+         * @return This builder.
+         * @see #addSchematic(Schematic, Point)
+         */
+        public @NotNull Builder addSchematic(@NotNull Schematic schematic, int x, int y, int z) {
+            return addSchematic(schematic, new Vec(x, y, z));
+        }
+
         /**
          * Specifies the offset that applies to all schematics added to this chunk loader.
          * @param x The x offset.
@@ -155,8 +451,87 @@ public class SchematicChunkLoader implements IChunkLoader {
             return this;
         }
 
+        /**
+         * Specifies whether chunks are built lazily.
+         * <br><br>
+         * By default, every schematic is applied when the chunk loader is built, and the blocks of every chunk are
+         * kept until the chunk loader is discarded. A lazy chunk loader only keeps the schematics and an index of
+         * the chunks they touch, builds the blocks of a chunk when it is loaded, and forgets them afterwards.
+         * Chunk sections fully covered by a schematic are written straight into the section's palette, rather than
+         * block by block.
+         * @param lazy Whether chunks are built lazily.
+         * @return This builder.
+         */
+        public @NotNull Builder lazy(boolean lazy) {
+            this.lazy = lazy;
+            return this;
+        }
+
+        /**
+         * Specifies the options used to place the schematics.
+         * <br><br>
+         * Skipping air lets schematics overlap without replacing each other's blocks with air, and skips the air
+         * blocks of mostly empty schematics in bulk.
+         * @param options The placement options.
+         * @return This builder.
+         */
+        public @NotNull Builder placementOptions(@NotNull PlacementOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * Specifies the file chunks are cached in across restarts.
+         * <br><br>
+         * The first time, every chunk is built when the chunk loader is built and written to the file. Later chunk
+         * loaders built from the same schematics, positions and options read each chunk straight from the file when
+         * it is loaded, without reading any schematic file added with {@link #addSchematic(Path, Point)}. The file is
+         * rewritten whenever any of them change. A chunk whose entry in the file is corrupt is built from the
+         * schematics instead.
+         * @param file The cache file, or {@code null} to not cache chunks.
+         * @return This builder.
+         */
+        public @NotNull Builder cache(@Nullable Path file) {
+            this.cacheFile = file;
+            return this;
+        }
+
+        /**
+         * Builds the chunk loader.
+         * @return The chunk loader.
+         * @throws UncheckedIOException if a schematic file can not be read, or the cache can not be read or written
+         */
         public @NotNull SchematicChunkLoader build() {
-            return new SchematicChunkLoader(handler, List.copyOf(schematics), xOffset, yOffset, zOffset);
+            try {
+                List<Source> sources = new ArrayList<>(this.sources.size());
+                for (Source source : this.sources) {
+                    sources.add(new Source(source.schematic(), source.file(), source.position().add(xOffset, yOffset, zOffset)));
+                }
+                if (cacheFile == null) return new SchematicChunkLoader(handler, resolve(sources), lazy, options);
+
+                ChunkCache.KeyBuilder key = new ChunkCache.KeyBuilder(options);
+                for (Source source : sources) {
+                    if (source.schematic() != null) key.add(source.schematic(), source.position());
+                    else key.add(source.file(), source.position());
+                }
+                byte[] cacheKey = key.build();
+
+                ChunkCache cache = ChunkCache.open(cacheFile, cacheKey);
+                if (cache == null) {
+                    SchematicChunkLoader loader = new SchematicChunkLoader(handler, resolve(sources), true, options);
+                    loader.writeCache(cacheFile, cacheKey);
+                    cache = Objects.requireNonNull(ChunkCache.open(cacheFile, cacheKey));
+                }
+                return new SchematicChunkLoader(handler, cache, sources, options);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static @NotNull List<Placement> resolve(@NotNull List<Source> sources) throws IOException {
+            List<Placement> placements = new ArrayList<>(sources.size());
+            for (Source source : sources) placements.add(source.resolve());
+            return placements;
         }
 
     }
@@ -0,0 +1,199 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.metrics.Metrics;
+import dev.hypera.scaffolding.metrics.MetricsListener;
+import dev.hypera.scaffolding.region.Region;
+import dev.hypera.scaffolding.schematic.PlacementOptions;
+import dev.hypera.scaffolding.schematic.Schematic;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Chunk;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.batch.ChunkBatch;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Places schematics into an instance one chunk at a time.
+ * <br><br>
+ * Every chunk touched by the schematic is loaded once, and written through its own {@link ChunkBatch} as soon as it
+ * is ready, so the work scales with the amount of chunks rather than the amount of blocks. Chunks are processed in
+ * parallel, which also applies to comparing them against the schematic when only changed blocks are placed.
+ * The chunks closest to the focus points of the {@link PlacementOptions} are loaded first, and no more than
+ * {@link PlacementOptions#getMaxConcurrentChunks()} chunks are loaded or placed at once.
+ */
+public final class SchematicPlacer {
+
+    private static final int MAX_BLOCK_UPDATES = 256;
+
+    private SchematicPlacer() {}
+
+    /**
+     * Places the given schematic at the given position.
+     * @param schematic The schematic to place.
+     * @param instance The instance to place the schematic in.
+     * @param position The position to place the schematic at.
+     * @return A future completed with the region of the schematic once every chunk has been written.
+     */
+    public static @NotNull CompletableFuture<Region> place(@NotNull Schematic schematic, @NotNull Instance instance, @NotNull Point position) {
+        return place(schematic, instance, position, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Places the given schematic at the given position.
+     * @param schematic The schematic to place.
+     * @param instance The instance to place the schematic in.
+     * @param position The position to place the schematic at.
+     * @param options The placement options.
+     * @return A future completed with the region of the schematic once every chunk has been written.
+     */
+    public static @NotNull CompletableFuture<Region> place(@NotNull Schematic schematic, @NotNull Instance instance, @NotNull Point position,
+                                                           @NotNull PlacementOptions options) {
+        return place(schematic, instance, position, options, false).thenApply(UndoSnapshot::getRegion);
+    }
+
+    /**
+     * Places the given schematic at the given position, capturing the blocks it overwrites so the placement can be
+     * undone.
+     * @param schematic The schematic to place.
+     * @param instance The instance to place the schematic in.
+     * @param position The position to place the schematic at.
+     * @param options The placement options.
+     * @return A future completed with the snapshot of the overwritten blocks once every chunk has been written.
+     */
+    public static @NotNull CompletableFuture<UndoSnapshot> placeUndoable(@NotNull Schematic schematic, @NotNull Instance instance,
+                                                                         @NotNull Point position, @NotNull PlacementOptions options) {
+        return place(schematic, instance, position, options, true);
+    }
+
+    private static @NotNull CompletableFuture<UndoSnapshot> place(@NotNull Schematic schematic, @NotNull Instance instance, @NotNull Point position,
+                                                                  @NotNull PlacementOptions options, boolean capture) {
+        int minX = position.blockX() + schematic.getOffsetX();
+        int minY = position.blockY() + schematic.getOffsetY();
+        int minZ = position.blockZ() + schematic.getOffsetZ();
+        int maxX = minX + schematic.getWidth() - 1;
+        int maxY = minY + schematic.getHeight() - 1;
+        int maxZ = minZ + schematic.getLength() - 1;
+
+        Region region = new Region(instance, position, position.add(schematic.getWidth(), schematic.getHeight(), schematic.getLength()));
+        if (maxX < minX || maxY < minY || maxZ < minZ) return CompletableFuture.completedFuture(new UndoSnapshot(instance, region, new ChunkSnapshot[0]));
+
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int maxChunkX = maxX >> 4;
+        int maxChunkZ = maxZ >> 4;
+
+        // Placed blocks are only counted while metrics are enabled
+        LongAdder placed = Metrics.isEnabled() ? new LongAdder() : null;
+        long start = placed != null ? System.nanoTime() : 0;
+
+        int chunksX = maxChunkX - minChunkX + 1;
+        int chunksZ = maxChunkZ - minChunkZ + 1;
+        ChunkSnapshot[] snapshots = new ChunkSnapshot[chunksX * chunksZ];
+        return ChunkQueue.run(instance, minChunkX, minChunkZ, chunksX, chunksZ, options, index -> {
+            int chunkX = minChunkX + index / chunksZ;
+            int chunkZ = minChunkZ + index % chunksZ;
+            Point min = new Vec(Math.max(chunkX << 4, minX), minY, Math.max(chunkZ << 4, minZ));
+            Point max = new Vec(Math.min((chunkX << 4) + 15, maxX), maxY, Math.min((chunkZ << 4) + 15, maxZ));
+            return instance.loadOptionalChunk(chunkX, chunkZ).thenComposeAsync(chunk -> {
+                ChunkSnapshot snapshot = null;
+                if (capture && chunk != null) snapshots[index] = snapshot = new ChunkSnapshot(chunk.getChunkX(), chunk.getChunkZ(), min, max);
+                return placeChunk(schematic, instance, chunk, position, min, max, options, placed, snapshot);
+            });
+        }).thenApply(v -> {
+            if (placed != null) Metrics.getListener().onBuild(new MetricsListener.Build(placed.sum(), snapshots.length, System.nanoTime() - start));
+            return new UndoSnapshot(instance, region, snapshots);
+        });
+    }
+
+    private static @NotNull CompletableFuture<Void> placeChunk(@NotNull Schematic schematic, @NotNull Instance instance, Chunk chunk,
+                                                               @NotNull Point position, @NotNull Point min, @NotNull Point max,
+                                                               @NotNull PlacementOptions options, @Nullable LongAdder placed,
+                                                               @Nullable ChunkSnapshot snapshot) {
+        // Chunk loading is disabled and the chunk isn't loaded
+        if (chunk == null) return CompletableFuture.completedFuture(null);
+
+        ChunkBatch batch = new ChunkBatch();
+        Block.Setter setter = snapshot != null ? snapshot.capture(chunk, batch) : batch;
+        if (options.isOnlyChanged()) {
+            // Compare against the chunk as it is now, chunks that already match are left alone
+            ChangedBlocks changes = new ChangedBlocks(chunk);
+            synchronized (chunk) {
+                schematic.apply(changes, position, min, max, options);
+
+                // A few block updates are far smaller than sending the whole chunk again
+                if (changes.size() > 0 && changes.size() <= MAX_BLOCK_UPDATES) {
+                    changes.apply(snapshot != null ? snapshot.capture(chunk, instance) : instance);
+                } else {
+                    changes.apply(setter);
+                }
+            }
+            if (snapshot != null) snapshot.finish();
+            if (placed != null) placed.add(changes.size());
+            if (changes.size() <= MAX_BLOCK_UPDATES) return CompletableFuture.completedFuture(null);
+        } else {
+            int[] blocks = new int[1];
+            Block.Setter target = placed == null ? setter : (x, y, z, block) -> {
+                blocks[0]++;
+                setter.setBlock(x, y, z, block);
+            };
+            if (snapshot != null) {
+                // The previous blocks are read from the chunk, which must not change until they have all been captured
+                synchronized (chunk) {
+                    schematic.apply(target, position, min, max, options);
+                }
+                snapshot.finish();
+            } else {
+                schematic.apply(target, position, min, max, options);
+            }
+            if (placed != null) placed.add(blocks[0]);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        batch.apply(instance, chunk, c -> future.complete(null));
+        return future;
+    }
+
+    /**
+     * Places the given schematic at the given position, spread across ticks according to the tick budget of the
+     * given options.
+     * @param schematic The schematic to place.
+     * @param instance The instance to place the schematic in.
+     * @param position The position to place the schematic at.
+     * @param options The placement options.
+     * @return The handle of the build.
+     */
+    public static @NotNull ScheduledBuild schedule(@NotNull Schematic schematic, @NotNull Instance instance, @NotNull Point position,
+                                                   @NotNull PlacementOptions options) {
+        ScheduledBuild build = new ScheduledBuild(schematic, instance, position, options);
+        build.start();
+        return build;
+    }
+
+}
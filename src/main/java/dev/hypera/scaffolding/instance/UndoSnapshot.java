@@ -0,0 +1,109 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.instance;
+
+import dev.hypera.scaffolding.region.Region;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.batch.ChunkBatch;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Blocks a schematic placement overwrote, captured while it was placed.
+ * <br><br>
+ * The previous blocks of every touched chunk are kept palette-packed, usually taking a few bits per placed block.
+ * Undoing writes them back one chunk at a time through a {@link ChunkBatch}, the same way they were placed.
+ */
+public final class UndoSnapshot {
+
+    private final @NotNull Instance instance;
+    private final @NotNull Region region;
+    private final ChunkSnapshot @NotNull [] chunks;
+
+    UndoSnapshot(@NotNull Instance instance, @NotNull Region region, ChunkSnapshot @NotNull [] chunks) {
+        this.instance = instance;
+        this.region = region;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Gets the region the schematic was placed in.
+     * @return The region.
+     */
+    public @NotNull Region getRegion() {
+        return region;
+    }
+
+    /**
+     * Gets the amount of blocks that were overwritten.
+     * @return The amount of blocks.
+     */
+    public long getBlockCount() {
+        long count = 0;
+        for (ChunkSnapshot chunk : chunks) {
+            if (chunk != null) count += chunk.getBlockCount();
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the memory used by this snapshot.
+     * @return The approximate size in bytes.
+     */
+    public long getMemoryUsage() {
+        long size = 0;
+        for (ChunkSnapshot chunk : chunks) {
+            if (chunk != null) size += chunk.getMemoryUsage();
+        }
+        return size;
+    }
+
+    /**
+     * Places the overwritten blocks back. Chunks that have been unloaded since are loaded again if the instance
+     * allows it, and skipped otherwise.
+     * @return A future completed with the region once every chunk has been written.
+     */
+    public @NotNull CompletableFuture<Region> undo() {
+        CompletableFuture<?>[] futures = new CompletableFuture[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            ChunkSnapshot snapshot = chunks[i];
+            if (snapshot == null || snapshot.getBlockCount() == 0) {
+                futures[i] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+
+            futures[i] = instance.loadOptionalChunk(snapshot.getChunkX(), snapshot.getChunkZ()).thenComposeAsync(chunk -> {
+                if (chunk == null) return CompletableFuture.completedFuture(null);
+                ChunkBatch batch = new ChunkBatch();
+                snapshot.restore(batch);
+
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                batch.apply(instance, chunk, c -> future.complete(null));
+                return future;
+            });
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> region);
+    }
+
+}
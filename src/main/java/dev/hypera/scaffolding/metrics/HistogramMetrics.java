@@ -0,0 +1,185 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link MetricsListener} keeping an in-memory histogram of every metric, meant to be exported periodically.
+ * <br><br>
+ * Histograms use power of two buckets, so recording is lock free and constant time, and percentiles are accurate to
+ * within a factor of two.
+ */
+public final class HistogramMetrics implements MetricsListener {
+
+    public static final String READ_BYTES = "read.bytes";
+    public static final String READ_DECOMPRESS_NANOS = "read.decompress_nanos";
+    public static final String READ_PARSE_NANOS = "read.parse_nanos";
+    public static final String READ_PALETTE_NANOS = "read.palette_nanos";
+    public static final String READ_DECODE_NANOS = "read.decode_nanos";
+    public static final String READ_TOTAL_NANOS = "read.total_nanos";
+    public static final String READ_ALLOCATED_BYTES = "read.allocated_bytes";
+    public static final String BUILD_NANOS = "build.nanos";
+    public static final String BUILD_BLOCKS_PER_SECOND = "build.blocks_per_second";
+    public static final String BUILD_CHUNKS = "build.chunks";
+    public static final String CHUNK_FILL_NANOS = "chunk.fill_nanos";
+    public static final String CHUNK_BATCH_APPLY_NANOS = "chunk.batch_apply_nanos";
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Histogram readBytes = histogram(READ_BYTES);
+    private final Histogram readDecompressNanos = histogram(READ_DECOMPRESS_NANOS);
+    private final Histogram readParseNanos = histogram(READ_PARSE_NANOS);
+    private final Histogram readPaletteNanos = histogram(READ_PALETTE_NANOS);
+    private final Histogram readDecodeNanos = histogram(READ_DECODE_NANOS);
+    private final Histogram readTotalNanos = histogram(READ_TOTAL_NANOS);
+    private final Histogram readAllocatedBytes = histogram(READ_ALLOCATED_BYTES);
+    private final Histogram buildNanos = histogram(BUILD_NANOS);
+    private final Histogram buildBlocksPerSecond = histogram(BUILD_BLOCKS_PER_SECOND);
+    private final Histogram buildChunks = histogram(BUILD_CHUNKS);
+    private final Histogram chunkFillNanos = histogram(CHUNK_FILL_NANOS);
+    private final Histogram chunkBatchApplyNanos = histogram(CHUNK_BATCH_APPLY_NANOS);
+
+    private @NotNull Histogram histogram(@NotNull String name) {
+        Histogram histogram = new Histogram();
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    @Override
+    public void onRead(@NotNull Read read) {
+        readBytes.record(read.bytesRead());
+        readDecompressNanos.record(read.decompressNanos());
+        readParseNanos.record(read.parseNanos());
+        readPaletteNanos.record(read.paletteNanos());
+        readDecodeNanos.record(read.decodeNanos());
+        readTotalNanos.record(read.totalNanos());
+        readAllocatedBytes.record(read.allocatedBytes());
+    }
+
+    @Override
+    public void onBuild(@NotNull Build build) {
+        buildNanos.record(build.nanos());
+        buildBlocksPerSecond.record((long) build.blocksPerSecond());
+        buildChunks.record(build.chunks());
+    }
+
+    @Override
+    public void onChunkLoad(@NotNull ChunkLoad chunkLoad) {
+        chunkFillNanos.record(chunkLoad.fillNanos());
+        chunkBatchApplyNanos.record(chunkLoad.batchApplyNanos());
+    }
+
+    /**
+     * Gets a snapshot of every histogram.
+     * @return The snapshots, by metric name.
+     */
+    public @NotNull Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new LinkedHashMap<>();
+        histograms.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Clears every histogram.
+     */
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    private static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private static int bucket(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+
+        private @NotNull Snapshot snapshot() {
+            long[] buckets = new long[this.buckets.length()];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = this.buckets.get(i);
+            return new Snapshot(count.sum(), sum.sum(), max.get(), buckets);
+        }
+
+        private void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+    }
+
+    /**
+     * Snapshot of a histogram.
+     * @param count The amount of recorded values.
+     * @param sum The sum of the recorded values.
+     * @param max The highest recorded value.
+     * @param buckets The amount of values per bucket, bucket {@code i} holds values below {@code 2^i}.
+     */
+    public record Snapshot(long count, long sum, long max, long @NotNull [] buckets) {
+
+        /**
+         * Gets the mean of the recorded values.
+         * @return The mean, or {@code 0} if nothing was recorded.
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Gets an upper bound of the given percentile of the recorded values.
+         * @param percentile The percentile, between {@code 0} and {@code 100}.
+         * @return The upper bound of the bucket holding the percentile, capped at the highest recorded value.
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Invalid percentile: " + percentile);
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) return Math.min(max, i == 0 ? 0 : (1L << i) - 1);
+            }
+            return max;
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Holds the {@link MetricsListener} Scaffolding reports to.
+ * <br><br>
+ * Metrics are disabled by default. While disabled, instrumented code only checks {@link #isEnabled()} and measures
+ * nothing, so it is safe to leave a listener installed in production.
+ */
+public final class Metrics {
+
+    private static volatile @NotNull MetricsListener listener = MetricsListener.NOOP;
+
+    private Metrics() {}
+
+    /**
+     * Sets the listener metrics are reported to.
+     * @param listener The listener, or {@link MetricsListener#NOOP} to disable metrics.
+     */
+    public static void setListener(@NotNull MetricsListener listener) {
+        Metrics.listener = listener;
+    }
+
+    /**
+     * Gets the listener metrics are reported to.
+     * @return The listener.
+     */
+    public static @NotNull MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Checks whether metrics are being measured.
+     * @return {@code true} if a listener other than {@link MetricsListener#NOOP} is set.
+     */
+    public static boolean isEnabled() {
+        return listener != MetricsListener.NOOP;
+    }
+
+}
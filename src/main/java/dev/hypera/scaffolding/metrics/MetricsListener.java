@@ -0,0 +1,103 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives metrics about reading and placing schematics.
+ * <br><br>
+ * Listeners are called on the thread that did the work, once per read, build or chunk, so they should be cheap and
+ * thread safe. Nothing is measured while the listener is {@link #NOOP}.
+ * @see Metrics#setListener(MetricsListener)
+ */
+public interface MetricsListener {
+
+    /**
+     * Listener that ignores every metric, used while metrics are disabled.
+     */
+    MetricsListener NOOP = new MetricsListener() {};
+
+    /**
+     * Called once a schematic has been read.
+     * @param read The metrics of the read.
+     */
+    default void onRead(@NotNull Read read) {}
+
+    /**
+     * Called once a schematic has been placed into an instance.
+     * @param build The metrics of the build.
+     */
+    default void onBuild(@NotNull Build build) {}
+
+    /**
+     * Called once a chunk has been loaded by a {@link dev.hypera.scaffolding.instance.SchematicChunkLoader}.
+     * @param chunkLoad The metrics of the chunk load.
+     */
+    default void onChunkLoad(@NotNull ChunkLoad chunkLoad) {}
+
+    /**
+     * Metrics of a schematic read.
+     * @param format The simple class name of the schematic format.
+     * @param bytesRead The amount of bytes read from the source, before decompression.
+     * @param decompressNanos The time spent decompressing.
+     * @param parseNanos The time spent walking the NBT tags, excluding decompression, palette resolution and decoding.
+     * @param paletteNanos The time spent resolving the palette to state ids.
+     * @param decodeNanos The time spent decoding blocks, excluding decompression.
+     * @param totalNanos The total time of the read.
+     * @param blocks The amount of blocks in the schematic.
+     * @param allocatedBytes The estimated amount of heap memory held by the block storage.
+     */
+    record Read(@NotNull String format, long bytesRead, long decompressNanos, long parseNanos, long paletteNanos, long decodeNanos,
+                long totalNanos, int blocks, long allocatedBytes) {}
+
+    /**
+     * Metrics of a schematic build.
+     * @param blocks The amount of blocks placed.
+     * @param chunks The amount of chunks touched.
+     * @param nanos The time from the start of the build until every chunk was written.
+     */
+    record Build(long blocks, int chunks, long nanos) {
+
+        /**
+         * Gets the throughput of the build.
+         * @return The amount of blocks placed per second.
+         */
+        public double blocksPerSecond() {
+            return nanos == 0 ? 0 : blocks * 1_000_000_000D / nanos;
+        }
+
+    }
+
+    /**
+     * Metrics of a chunk loaded from schematics.
+     * @param chunkX The chunk x coordinate.
+     * @param chunkZ The chunk z coordinate.
+     * @param schematics The amount of schematics read while loading the chunk, schematics an eager loader already
+     *                   prepared a batch for are not counted.
+     * @param fillNanos The time spent filling the chunk and its batch from the schematics.
+     * @param batchApplyNanos The time from applying the batch until the chunk was ready.
+     */
+    record ChunkLoad(int chunkX, int chunkZ, int schematics, long fillNanos, long batchApplyNanos) {}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.metrics;
+
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures a single schematic read, and reports it to the {@link Metrics} listener once finished.
+ * <br><br>
+ * A recorder is only created while metrics are enabled, readers skip all measuring when they don't have one.
+ * Reads are single threaded, so a recorder is not thread safe.
+ */
+@ApiStatus.Internal
+public final class ReadRecorder {
+
+    private final long start = System.nanoTime();
+    private long bytesRead;
+    private long decompressNanos;
+    private long paletteNanos;
+    private long decodeNanos;
+
+    private long phaseStart;
+    private long phaseDecompressNanos;
+
+    private ReadRecorder() {}
+
+    /**
+     * Starts recording a read.
+     * @return The recorder, or {@code null} if metrics are disabled.
+     */
+    public static @Nullable ReadRecorder start() {
+        return Metrics.isEnabled() ? new ReadRecorder() : null;
+    }
+
+    /**
+     * Wraps the raw input of the read, counting the bytes read from it.
+     * @param inputStream The raw input.
+     * @return The counting input.
+     */
+    public @NotNull InputStream counting(@NotNull InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) bytesRead++;
+                return b;
+            }
+
+            @Override
+            public int read(byte @NotNull [] bytes, int offset, int length) throws IOException {
+                int read = super.read(bytes, offset, length);
+                if (read > 0) bytesRead += read;
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytesRead += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Wraps a decompressing input, timing the reads from it.
+     * @param inputStream The decompressing input, ideally read in large blocks.
+     * @return The timed input.
+     */
+    public @NotNull InputStream timing(@NotNull InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read();
+                } finally {
+                    decompressNanos += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public int read(byte @NotNull [] bytes, int offset, int length) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read(bytes, offset, length);
+                } finally {
+                    decompressNanos += System.nanoTime() - start;
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds bytes that were read without going through {@link #counting(InputStream)}, such as a mapped file.
+     * @param bytes The amount of bytes.
+     */
+    public void addBytesRead(long bytes) {
+        this.bytesRead += bytes;
+    }
+
+    /**
+     * Starts timing palette resolution or decoding.
+     */
+    public void startPhase() {
+        this.phaseStart = System.nanoTime();
+        this.phaseDecompressNanos = decompressNanos;
+    }
+
+    /**
+     * Stops timing palette resolution, started by {@link #startPhase()}.
+     */
+    public void endPalette() {
+        this.paletteNanos += phaseNanos();
+    }
+
+    /**
+     * Stops timing decoding, started by {@link #startPhase()}.
+     */
+    public void endDecode() {
+        this.decodeNanos += phaseNanos();
+    }
+
+    private long phaseNanos() {
+        // Decoding straight from a compressed stream also decompresses, which is already accounted for
+        return Math.max(0, System.nanoTime() - phaseStart - (decompressNanos - phaseDecompressNanos));
+    }
+
+    /**
+     * Finishes the read and reports it.
+     * @param schematic The schematic that was read.
+     */
+    public void finish(@NotNull AbstractSchematic schematic) {
+        long totalNanos = System.nanoTime() - start;
+        long parseNanos = Math.max(0, totalNanos - decompressNanos - paletteNanos - decodeNanos);
+
+        BlockStorage blocks = schematic.getBlocks();
+        long allocatedBytes = blocks.isReadOnly() ? 0 : blocks.getWordCount() * 8L + blocks.getPaletteSize() * 2L;
+        Metrics.getListener().onRead(new MetricsListener.Read(schematic.getClass().getSimpleName(), bytesRead, decompressNanos,
+                parseNanos, paletteNanos, decodeNanos, totalNanos, blocks.size(), allocatedBytes));
+    }
+
+}
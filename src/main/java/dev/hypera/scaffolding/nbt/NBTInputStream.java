@@ -0,0 +1,267 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.nbt;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal streaming NBT reader.
+ * <br><br>
+ * Unlike Hephaistos' {@link org.jglrxavpok.hephaistos.nbt.NBTReader}, this never builds a tag tree. Callers walk the
+ * tags themselves and either read a payload, hand it to a decoder as it arrives, or skip it.
+ */
+public class NBTInputStream extends DataInputStream {
+
+    public static final byte TAG_END = 0;
+    public static final byte TAG_BYTE = 1;
+    public static final byte TAG_SHORT = 2;
+    public static final byte TAG_INT = 3;
+    public static final byte TAG_LONG = 4;
+    public static final byte TAG_FLOAT = 5;
+    public static final byte TAG_DOUBLE = 6;
+    public static final byte TAG_BYTE_ARRAY = 7;
+    public static final byte TAG_STRING = 8;
+    public static final byte TAG_LIST = 9;
+    public static final byte TAG_COMPOUND = 10;
+    public static final byte TAG_INT_ARRAY = 11;
+    public static final byte TAG_LONG_ARRAY = 12;
+
+    /**
+     * Creates a new NBT input stream.
+     * @param inputStream The uncompressed NBT input, ideally buffered.
+     */
+    public NBTInputStream(@NotNull InputStream inputStream) {
+        super(inputStream);
+    }
+
+    /**
+     * Creates a new NBT input stream reading straight from the given buffer, so payloads can be handed out as views
+     * of the buffer through {@link #readBuffer(int)}.
+     * @param buffer The uncompressed NBT input, its position is advanced as tags are read.
+     */
+    public NBTInputStream(@NotNull ByteBuffer buffer) {
+        super(new ByteBufferInputStream(buffer));
+    }
+
+    /**
+     * Reads the given amount of bytes as a view of the underlying buffer, without copying them.
+     * @param length The amount of bytes.
+     * @return The bytes, or {@code null} if this stream isn't reading from a buffer.
+     * @throws IOException if the input is too short
+     */
+    public @Nullable ByteBuffer readBuffer(int length) throws IOException {
+        if (!(in instanceof ByteBufferInputStream stream)) return null;
+
+        ByteBuffer buffer = stream.getBuffer();
+        if (buffer.remaining() < length) throw new EOFException();
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Reads the payload of a tag without decoding it, as a view of the underlying buffer if this stream is reading
+     * from one, or as a copy otherwise.
+     * @param type The tag type.
+     * @return The raw payload.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the payload contains an unknown tag type
+     */
+    public @NotNull ByteBuffer readPayload(byte type) throws IOException, NBTException {
+        if (in instanceof ByteBufferInputStream stream) {
+            ByteBuffer buffer = stream.getBuffer();
+            int start = buffer.position();
+            skipPayload(type);
+            return buffer.slice(start, buffer.position() - start);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copyPayload(type, new DataOutputStream(bytes));
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private void copyPayload(byte type, @NotNull DataOutputStream output) throws IOException, NBTException {
+        switch (type) {
+            case TAG_END -> {}
+            case TAG_BYTE -> output.writeByte(readByte());
+            case TAG_SHORT -> output.writeShort(readShort());
+            case TAG_INT, TAG_FLOAT -> output.writeInt(readInt());
+            case TAG_LONG, TAG_DOUBLE -> output.writeLong(readLong());
+            case TAG_BYTE_ARRAY -> copyBytes(output, readArrayLength(), 1);
+            case TAG_STRING -> output.writeUTF(readUTF());
+            case TAG_INT_ARRAY -> copyBytes(output, readArrayLength(), 4);
+            case TAG_LONG_ARRAY -> copyBytes(output, readArrayLength(), 8);
+            case TAG_LIST -> {
+                byte elementType = readByte();
+                int length = readArrayLength();
+                output.writeByte(elementType);
+                output.writeInt(length);
+                for (int i = 0; i < length; i++) copyPayload(elementType, output);
+            }
+            case TAG_COMPOUND -> {
+                byte elementType;
+                while ((elementType = readTagType()) != TAG_END) {
+                    output.writeByte(elementType);
+                    output.writeUTF(readTagName());
+                    copyPayload(elementType, output);
+                }
+                output.writeByte(TAG_END);
+            }
+            default -> throw new NBTException("Invalid NBT: Unknown tag type " + type);
+        }
+    }
+
+    private void copyBytes(@NotNull DataOutputStream output, int length, int elementSize) throws IOException {
+        output.writeInt(length);
+        byte[] bytes = new byte[(int) Math.min((long) length * elementSize, 8192)];
+        for (long remaining = (long) length * elementSize; remaining > 0; ) {
+            int read = (int) Math.min(remaining, bytes.length);
+            readFully(bytes, 0, read);
+            output.write(bytes, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Reads the header of the root compound.
+     * @return The name of the root compound.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the root tag is not a compound
+     */
+    public @NotNull String readRootCompound() throws IOException, NBTException {
+        byte type = readByte();
+        if (type != TAG_COMPOUND) throw new NBTException("Invalid NBT: Root tag is not a compound");
+        return readUTF();
+    }
+
+    /**
+     * Reads the type of the next tag in a compound.
+     * @return The tag type, {@link #TAG_END} at the end of the compound.
+     * @throws IOException if the input could not be read
+     */
+    public byte readTagType() throws IOException {
+        return readByte();
+    }
+
+    /**
+     * Reads the name of a tag, must be called after {@link #readTagType()} returned anything but {@link #TAG_END}.
+     * @return The tag name.
+     * @throws IOException if the input could not be read
+     */
+    public @NotNull String readTagName() throws IOException {
+        return readUTF();
+    }
+
+    /**
+     * Reads the length of an array payload.
+     * @return The amount of elements in the array.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the length is negative
+     */
+    public int readArrayLength() throws IOException, NBTException {
+        int length = readInt();
+        if (length < 0) throw new NBTException("Invalid NBT: Negative array length");
+        return length;
+    }
+
+    /**
+     * Reads a byte array payload.
+     * @return The bytes.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the length is negative
+     */
+    public byte @NotNull [] readByteArray() throws IOException, NBTException {
+        byte[] bytes = new byte[readArrayLength()];
+        readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an int array payload.
+     * @return The ints.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the length is negative
+     */
+    public int @NotNull [] readIntArray() throws IOException, NBTException {
+        int[] ints = new int[readArrayLength()];
+        for (int i = 0; i < ints.length; i++) ints[i] = readInt();
+        return ints;
+    }
+
+    /**
+     * Skips the payload of a tag.
+     * @param type The tag type.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the tag type is unknown
+     */
+    public void skipPayload(byte type) throws IOException, NBTException {
+        switch (type) {
+            case TAG_END -> {}
+            case TAG_BYTE -> skipNBytes(1);
+            case TAG_SHORT -> skipNBytes(2);
+            case TAG_INT, TAG_FLOAT -> skipNBytes(4);
+            case TAG_LONG, TAG_DOUBLE -> skipNBytes(8);
+            case TAG_BYTE_ARRAY -> skipNBytes(readArrayLength());
+            case TAG_STRING -> skipNBytes(readUnsignedShort());
+            case TAG_INT_ARRAY -> skipNBytes(4L * readArrayLength());
+            case TAG_LONG_ARRAY -> skipNBytes(8L * readArrayLength());
+            case TAG_LIST -> {
+                byte elementType = readByte();
+                int length = readArrayLength();
+                int elementSize = fixedSize(elementType);
+                if (elementSize >= 0) skipNBytes((long) elementSize * length);
+                else for (int i = 0; i < length; i++) skipPayload(elementType);
+            }
+            case TAG_COMPOUND -> {
+                byte elementType;
+                while ((elementType = readTagType()) != TAG_END) {
+                    skipNBytes(readUnsignedShort());
+                    skipPayload(elementType);
+                }
+            }
+            default -> throw new NBTException("Invalid NBT: Unknown tag type " + type);
+        }
+    }
+
+    private static int fixedSize(byte type) {
+        return switch (type) {
+            case TAG_END -> 0;
+            case TAG_BYTE -> 1;
+            case TAG_SHORT -> 2;
+            case TAG_INT, TAG_FLOAT -> 4;
+            case TAG_LONG, TAG_DOUBLE -> 8;
+            default -> -1;
+        };
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.nbt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static dev.hypera.scaffolding.nbt.NBTInputStream.*;
+
+/**
+ * Minimal streaming NBT writer, the counterpart of {@link NBTInputStream}.
+ * <br><br>
+ * Tags are written as they are produced, so large arrays can be streamed without building a tag tree.
+ */
+public class NBTOutputStream extends DataOutputStream {
+
+    /**
+     * Creates a new NBT output stream.
+     * @param outputStream The uncompressed NBT output, ideally buffered.
+     */
+    public NBTOutputStream(@NotNull OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    /**
+     * Writes the header of a tag, its payload must be written next.
+     * @param type The tag type.
+     * @param name The tag name.
+     * @throws IOException if the output could not be written
+     */
+    public void writeTagHeader(byte type, @NotNull String name) throws IOException {
+        writeByte(type);
+        writeUTF(name);
+    }
+
+    /**
+     * Ends the current compound.
+     * @throws IOException if the output could not be written
+     */
+    public void writeEnd() throws IOException {
+        writeByte(TAG_END);
+    }
+
+    public void writeShortTag(@NotNull String name, short value) throws IOException {
+        writeTagHeader(TAG_SHORT, name);
+        writeShort(value);
+    }
+
+    public void writeIntTag(@NotNull String name, int value) throws IOException {
+        writeTagHeader(TAG_INT, name);
+        writeInt(value);
+    }
+
+    public void writeStringTag(@NotNull String name, @NotNull String value) throws IOException {
+        writeTagHeader(TAG_STRING, name);
+        writeUTF(value);
+    }
+
+    public void writeIntArrayTag(@NotNull String name, int @NotNull ... values) throws IOException {
+        writeTagHeader(TAG_INT_ARRAY, name);
+        writeInt(values.length);
+        for (int value : values) writeInt(value);
+    }
+
+    /**
+     * Writes the header and length of a byte array tag, exactly {@code length} bytes must be written next.
+     * @param name The tag name.
+     * @param length The amount of bytes in the array.
+     * @throws IOException if the output could not be written
+     */
+    public void writeByteArrayHeader(@NotNull String name, int length) throws IOException {
+        writeTagHeader(TAG_BYTE_ARRAY, name);
+        writeInt(length);
+    }
+
+}
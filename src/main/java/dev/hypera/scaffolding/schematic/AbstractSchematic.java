@@ -0,0 +1,431 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import dev.hypera.scaffolding.instance.ScheduledBuild;
+import dev.hypera.scaffolding.instance.SchematicPlacer;
+import dev.hypera.scaffolding.metrics.ReadRecorder;
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.region.Region;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.palette.Palette;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base class for schematic formats that decode into a {@link BlockStorage}.
+ */
+public abstract class AbstractSchematic implements Schematic {
+
+    protected short width;
+    protected short height;
+    protected short length;
+    protected BlockStorage blocks;
+    protected @Nullable BlockEntities blockEntities;
+    protected @Nullable ReadRecorder recorder;
+
+    protected boolean read = false;
+
+    protected int offsetX;
+    protected int offsetY;
+    protected int offsetZ;
+
+    private int sizesRead;
+    private volatile BlockMask mask;
+
+    /**
+     * Reads the schematic from a GZIP compressed NBT stream, decoding it as it arrives instead of building a
+     * {@link org.jglrxavpok.hephaistos.nbt.NBTCompound} first.
+     * @param inputStream Schematic input
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    @Override
+    public void read(@NotNull InputStream inputStream) throws IOException, NBTException {
+        ReadRecorder recorder = ReadRecorder.start();
+        try (NBTInputStream input = SchematicReader.open(inputStream, recorder)) {
+            this.recorder = recorder;
+            input.readRootCompound();
+            readTags(input);
+        }
+    }
+
+    /**
+     * Reads the remaining tags of the root compound from the given stream.
+     * @param input The stream, positioned inside the root compound.
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    protected void readTags(@NotNull NBTInputStream input) throws IOException, NBTException {
+        byte type;
+        while ((type = input.readTagType()) != NBTInputStream.TAG_END) {
+            String name = input.readTagName();
+            if (!readTag(input, name, type)) input.skipPayload(type);
+        }
+
+        readComplete();
+        read = true;
+
+        ReadRecorder recorder = this.recorder;
+        if (recorder != null) {
+            this.recorder = null;
+            recorder.finish(this);
+        }
+    }
+
+    /**
+     * Reads a single tag of the root compound.
+     * @param input The stream, positioned at the payload of the tag.
+     * @param name The tag name.
+     * @param type The tag type.
+     * @return {@code true} if the payload was consumed, {@code false} if it should be skipped.
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    protected boolean readTag(@NotNull NBTInputStream input, @NotNull String name, byte type) throws IOException, NBTException {
+        if (type != NBTInputStream.TAG_SHORT) return false;
+        return readSize(name, input.readShort());
+    }
+
+    /**
+     * Reads one of the {@code Width}, {@code Height} and {@code Length} tags.
+     * @param name The tag name.
+     * @param value The tag value.
+     * @return {@code true} if the tag is a size tag.
+     */
+    protected boolean readSize(@NotNull String name, short value) {
+        switch (name) {
+            case "Width" -> {
+                this.width = value;
+                this.sizesRead |= 1;
+            }
+            case "Height" -> {
+                this.height = value;
+                this.sizesRead |= 2;
+            }
+            case "Length" -> {
+                this.length = value;
+                this.sizesRead |= 4;
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether all sizes have been read so far.
+     * @return {@code true} if {@code Width}, {@code Height} and {@code Length} were read.
+     */
+    protected boolean hasSizes() {
+        return sizesRead == 7;
+    }
+
+    /**
+     * Validates that all sizes have been read.
+     * @throws NBTException if a size is missing
+     */
+    protected void checkSizes() throws NBTException {
+        if ((sizesRead & 1) == 0) throw new NBTException("Invalid Schematic: No Width");
+        if ((sizesRead & 2) == 0) throw new NBTException("Invalid Schematic: No Height");
+        if ((sizesRead & 4) == 0) throw new NBTException("Invalid Schematic: No Length");
+    }
+
+    /**
+     * Called once all tags of the root compound have been read.
+     * @throws NBTException if the schematic is invalid
+     */
+    protected abstract void readComplete() throws NBTException;
+
+    @Override
+    public CompletableFuture<Region> build(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        return SchematicPlacer.place(this, instance, position, options);
+    }
+
+    @Override
+    public @NotNull ScheduledBuild buildScheduled(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        return SchematicPlacer.schedule(this, instance, position, options);
+    }
+
+    @Override
+    public short getWidth() {
+        return width;
+    }
+
+    @Override
+    public short getHeight() {
+        return height;
+    }
+
+    @Override
+    public short getLength() {
+        return length;
+    }
+
+    @Override
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    @Override
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    @Override
+    public int getOffsetZ() {
+        return offsetZ;
+    }
+
+    /**
+     * Gets the storage holding the blocks of this schematic.
+     * @return The block storage.
+     */
+    public @NotNull BlockStorage getBlocks() {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        return blocks;
+    }
+
+    /**
+     * Gets the block entities of this schematic.
+     * @return The block entities, or {@code null} if the schematic has none.
+     */
+    public @Nullable BlockEntities getBlockEntities() {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        return blockEntities;
+    }
+
+    /**
+     * Gets the mask of the blocks that are placed with the given options.
+     * The last computed mask is cached until different state ids are ignored.
+     * @param options The placement options.
+     * @return The mask, or {@code null} if the options place every block.
+     */
+    public @Nullable BlockMask getMask(@NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        if (!options.skipsBlocks()) return null;
+
+        boolean[] ignored = new boolean[blocks.getPaletteSize()];
+        for (int i = 0; i < ignored.length; i++) ignored[i] = options.isIgnored(blocks.getPaletteEntry(i));
+
+        BlockMask mask = this.mask;
+        if (mask == null || !mask.matches(ignored)) this.mask = mask = BlockMask.compute(blocks, ignored);
+        return mask;
+    }
+
+    @Override
+    public void apply(@NotNull Block.Setter setter, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        Block[] palette = blocks.resolvePalette();
+        BlockMask mask = getMask(options);
+        if (mask == null) {
+            int index = 0;
+            for (int y = 0; y < height; y++) {
+                for (int z = 0; z < length; z++) {
+                    for (int x = 0; x < width; x++, index++) {
+                        setter.setBlock(x + offsetX, y + offsetY, z + offsetZ, getBlock(palette, index));
+                    }
+                }
+            }
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                for (int run = mask.getFirstRun(y, z), end = mask.getEndRun(y, z); run < end; run++) {
+                    int to = mask.getRunEnd(run);
+                    int x = mask.getRunStart(run);
+                    for (int index = blocks.index(x, y, z); x < to; x++, index++) {
+                        setter.setBlock(x + offsetX, y + offsetY, z + offsetZ, getBlock(palette, index));
+                    }
+                }
+            }
+        }
+    }
+
+    private @NotNull Block getBlock(Block @NotNull [] palette, int index) {
+        int paletteIndex = blocks.get(index);
+        Block minestomBlock = palette[paletteIndex];
+        if (minestomBlock == null) throw new IllegalStateException("Invalid block state id: " + blocks.getPaletteEntry(paletteIndex));
+        BlockEntities blockEntities = this.blockEntities;
+        if (blockEntities != null && blockEntities.mayContain(paletteIndex)) return blockEntities.apply(minestomBlock, index);
+        return minestomBlock;
+    }
+
+    @Override
+    public void apply(@NotNull Block.Setter setter, @NotNull Point position, @NotNull Point min, @NotNull Point max, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        int baseX = position.blockX() + offsetX;
+        int baseY = position.blockY() + offsetY;
+        int baseZ = position.blockZ() + offsetZ;
+
+        int fromX = Math.max(min.blockX() - baseX, 0);
+        int fromY = Math.max(min.blockY() - baseY, 0);
+        int fromZ = Math.max(min.blockZ() - baseZ, 0);
+        int toX = Math.min(max.blockX() - baseX, width - 1);
+        int toY = Math.min(max.blockY() - baseY, height - 1);
+        int toZ = Math.min(max.blockZ() - baseZ, length - 1);
+
+        Block[] palette = blocks.resolvePalette();
+        BlockMask mask = getMask(options);
+        for (int y = fromY; y <= toY; y++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                if (mask == null) {
+                    applyRow(setter, palette, baseX, baseY, baseZ, fromX, toX, y, z);
+                    continue;
+                }
+
+                for (int run = mask.getFirstRun(y, z), end = mask.getEndRun(y, z); run < end; run++) {
+                    int start = mask.getRunStart(run);
+                    if (start > toX) break;
+                    applyRow(setter, palette, baseX, baseY, baseZ, Math.max(start, fromX), Math.min(mask.getRunEnd(run) - 1, toX), y, z);
+                }
+            }
+        }
+    }
+
+    private void applyRow(@NotNull Block.Setter setter, Block @NotNull [] palette, int baseX, int baseY, int baseZ, int fromX, int toX, int y, int z) {
+        BlockEntities blockEntities = this.blockEntities;
+        int index = blocks.index(fromX, y, z);
+        for (int x = fromX; x <= toX; x++, index++) {
+            int paletteIndex = blocks.get(index);
+            Block block = palette[paletteIndex];
+            if (block == null) continue;
+            if (blockEntities != null && blockEntities.mayContain(paletteIndex)) block = blockEntities.apply(block, index);
+            setter.setBlock(baseX + x, baseY + y, baseZ + z, block);
+        }
+    }
+
+    @Override
+    public void forEachBlock(@NotNull BlockVisitor visitor, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        short[] stateIds = getPaletteStateIds(options);
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                for (int x = 0; x < width; x++, index++) {
+                    short stateId = stateIds[blocks.get(index)];
+                    if (stateId != -1) visitor.visit(x + offsetX, y + offsetY, z + offsetZ, stateId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEachSection(@NotNull Point position, @NotNull SectionVisitor visitor, @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        short[] paletteStateIds = getPaletteStateIds(options);
+        int baseX = position.blockX() + offsetX;
+        int baseY = position.blockY() + offsetY;
+        int baseZ = position.blockZ() + offsetZ;
+
+        short[] stateIds = new short[4096];
+        for (int sectionY = baseY >> 4; sectionY <= (baseY + height - 1) >> 4; sectionY++) {
+            int fromY = Math.max(sectionY << 4, baseY);
+            int toY = Math.min((sectionY << 4) + 15, baseY + height - 1);
+            for (int sectionZ = baseZ >> 4; sectionZ <= (baseZ + length - 1) >> 4; sectionZ++) {
+                int fromZ = Math.max(sectionZ << 4, baseZ);
+                int toZ = Math.min((sectionZ << 4) + 15, baseZ + length - 1);
+                for (int sectionX = baseX >> 4; sectionX <= (baseX + width - 1) >> 4; sectionX++) {
+                    int fromX = Math.max(sectionX << 4, baseX);
+                    int toX = Math.min((sectionX << 4) + 15, baseX + width - 1);
+
+                    // Only sections the schematic covers partially have positions without a block
+                    if (toX - fromX < 15 || toY - fromY < 15 || toZ - fromZ < 15) Arrays.fill(stateIds, (short) -1);
+                    for (int y = fromY; y <= toY; y++) {
+                        for (int z = fromZ; z <= toZ; z++) {
+                            int index = blocks.index(fromX - baseX, y - baseY, z - baseZ);
+                            int sectionIndex = (y & 15) << 8 | (z & 15) << 4 | (fromX & 15);
+                            for (int x = fromX; x <= toX; x++) stateIds[sectionIndex++] = paletteStateIds[blocks.get(index++)];
+                        }
+                    }
+                    visitor.visit(sectionX, sectionY, sectionZ, stateIds);
+                }
+            }
+        }
+    }
+
+    private short @NotNull [] getPaletteStateIds(@NotNull PlacementOptions options) {
+        // Ignored blocks are visited as -1, which the visitors skip
+        short[] stateIds = new short[blocks.getPaletteSize()];
+        for (int i = 0; i < stateIds.length; i++) {
+            short stateId = blocks.getPaletteEntry(i);
+            stateIds[i] = options.isIgnored(stateId) ? -1 : stateId;
+        }
+        return stateIds;
+    }
+
+    @Override
+    public boolean applySection(@NotNull Palette palette, @NotNull Point position, int sectionX, int sectionY, int sectionZ,
+                                @NotNull PlacementOptions options) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        if (options.skipsBlocks()) return false;
+
+        int fromX = (sectionX << 4) - position.blockX() - offsetX;
+        int fromY = (sectionY << 4) - position.blockY() - offsetY;
+        int fromZ = (sectionZ << 4) - position.blockZ() - offsetZ;
+        if (fromX < 0 || fromY < 0 || fromZ < 0 || fromX + 16 > width || fromY + 16 > height || fromZ + 16 > length) return false;
+
+        // Palettes only hold state ids, so sections with block entities are placed block by block
+        BlockEntities blockEntities = this.blockEntities;
+        if (blockEntities != null && blockEntities.intersects(blocks, fromX, fromY, fromZ, 16)) return false;
+
+        // Blocks with an unknown state id are skipped, which a palette write can't do
+        for (Block block : blocks.resolvePalette()) {
+            if (block == null) return false;
+        }
+
+        int first = blocks.get(blocks.index(fromX, fromY, fromZ));
+        if (isUniform(first, fromX, fromY, fromZ)) {
+            palette.fill(blocks.getPaletteEntry(first));
+        } else {
+            palette.setAll((x, y, z) -> blocks.getStateId(fromX + x, fromY + y, fromZ + z));
+        }
+        return true;
+    }
+
+    private boolean isUniform(int paletteIndex, int fromX, int fromY, int fromZ) {
+        if (blocks.getPaletteSize() == 1) return true;
+        for (int y = fromY; y < fromY + 16; y++) {
+            for (int z = fromZ; z < fromZ + 16; z++) {
+                int index = blocks.index(fromX, y, z);
+                for (int x = 0; x < 16; x++, index++) {
+                    if (blocks.get(index) != paletteIndex) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Incremental decoder for Sponge {@code BlockData}, which stores one varint palette index per block.
+ * <br><br>
+ * Bytes can be fed in any amount of pieces, a varint split between two pieces is carried over, so the data never
+ * needs to exist in memory as a whole. Block data that is already in memory as a whole can be decoded in parallel
+ * instead, see {@link #decodeParallel(ByteBuffer, int)}.
+ */
+public final class BlockDataDecoder {
+
+    private static final int BUFFER_SIZE = 8192;
+    // Segments start at multiples of 64 blocks, so they never share a long of the packed array
+    private static final int MIN_SEGMENT_BLOCKS = 1 << 16;
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+    // Palette values map to block state ids, which are shorts, so a larger palette index is never valid
+    private static final int MAX_PALETTE_SIZE = 1 << 16;
+
+    private final @NotNull BlockStorage storage;
+    private final int paletteSize;
+
+    private int index;
+    private int value;
+    private int varIntLength;
+    private int maxPaletteIndex = -1;
+
+    /**
+     * Creates a decoder for block data whose palette size is not known yet.
+     * @param storage The storage to decode into.
+     */
+    public BlockDataDecoder(@NotNull BlockStorage storage) {
+        this(storage, MAX_PALETTE_SIZE);
+    }
+
+    /**
+     * Creates a decoder for block data.
+     * @param storage The storage to decode into.
+     * @param paletteSize The amount of entries in the palette, palette indices outside of it are rejected while decoding.
+     */
+    public BlockDataDecoder(@NotNull BlockStorage storage, int paletteSize) {
+        this.storage = storage;
+        this.paletteSize = Math.min(paletteSize, MAX_PALETTE_SIZE);
+    }
+
+    /**
+     * Decodes a piece of block data.
+     * @param bytes The bytes.
+     * @param offset The offset of the first byte to decode.
+     * @param length The amount of bytes to decode.
+     * @throws NBTException if the block data is invalid
+     */
+    public void decode(byte @NotNull [] bytes, int offset, int length) throws NBTException {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            value |= (b & 127) << (varIntLength++ * 7);
+            if (varIntLength > 5) throw new NBTException("Invalid Schematic: BlockData has invalid length");
+            if ((b & 128) == 128) continue;
+
+            if (index >= storage.size()) throw new NBTException("Invalid Schematic: BlockData is larger than the schematic");
+            // A five byte varint can overflow into a negative value
+            if (value < 0 || value >= paletteSize) throw new NBTException("Invalid Schematic: BlockData references unknown palette index " + value);
+            if (value > maxPaletteIndex) maxPaletteIndex = value;
+            storage.set(index++, value);
+
+            value = 0;
+            varIntLength = 0;
+        }
+    }
+
+    /**
+     * Decodes the remaining bytes of the given buffer, without copying them.
+     * @param buffer The buffer, its position is not changed.
+     * @throws NBTException if the block data is invalid
+     */
+    public void decode(@NotNull ByteBuffer buffer) throws NBTException {
+        for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+            byte b = buffer.get(i);
+            value |= (b & 127) << (varIntLength++ * 7);
+            if (varIntLength > 5) throw new NBTException("Invalid Schematic: BlockData has invalid length");
+            if ((b & 128) == 128) continue;
+
+            if (index >= storage.size()) throw new NBTException("Invalid Schematic: BlockData is larger than the schematic");
+            // A five byte varint can overflow into a negative value
+            if (value < 0 || value >= paletteSize) throw new NBTException("Invalid Schematic: BlockData references unknown palette index " + value);
+            if (value > maxPaletteIndex) maxPaletteIndex = value;
+            storage.set(index++, value);
+
+            value = 0;
+            varIntLength = 0;
+        }
+    }
+
+    /**
+     * Decodes all block data at once, splitting it into segments that are decoded concurrently on the common
+     * fork-join pool. Small block data, or block data the storage would need to widen for, is decoded sequentially.
+     * @param buffer The whole block data, its position is not changed.
+     * @param paletteSize The amount of entries in the palette.
+     * @throws NBTException if the block data is invalid
+     */
+    public void decodeParallel(@NotNull ByteBuffer buffer, int paletteSize) throws NBTException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int length = buffer.remaining();
+        if (index != 0 || varIntLength != 0 || parallelism < 2 || length < PARALLEL_THRESHOLD || storage.isReadOnly()
+                || (1L << storage.getBitsPerEntry()) < paletteSize) {
+            decode(buffer);
+            return;
+        }
+
+        // Find the byte offset of every segment start in a single pass over the varint terminators
+        int segmentBlocks = Math.max(MIN_SEGMENT_BLOCKS, (storage.size() / (parallelism * 4) + 63) & ~63);
+        int[] offsets = new int[storage.size() / segmentBlocks + 2];
+        int segments = 0;
+        int blocks = 0;
+        int start = buffer.position();
+        int end = buffer.limit();
+        offsets[segments++] = start;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) >= 0 && ++blocks % segmentBlocks == 0 && i + 1 < end) {
+                if (segments == offsets.length) throw new NBTException("Invalid Schematic: BlockData is larger than the schematic");
+                offsets[segments++] = i + 1;
+            }
+        }
+        if (blocks > storage.size()) throw new NBTException("Invalid Schematic: BlockData is larger than the schematic");
+        if (buffer.get(end - 1) < 0) throw new NBTException("Invalid Schematic: BlockData has invalid length");
+
+        List<Callable<Integer>> tasks = new ArrayList<>(segments);
+        for (int segment = 0; segment < segments; segment++) {
+            int from = offsets[segment];
+            int to = segment + 1 < segments ? offsets[segment + 1] : end;
+            int firstBlock = segment * segmentBlocks;
+            tasks.add(() -> decodeSegment(buffer, from, to, firstBlock, paletteSize));
+        }
+
+        int max = -1;
+        for (Future<Integer> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                max = Math.max(max, future.get());
+            } catch (ExecutionException e) {
+                // The pool wraps checked exceptions of callables
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof NBTException exception) throw exception;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        this.index = blocks;
+        this.maxPaletteIndex = Math.max(maxPaletteIndex, max);
+    }
+
+    private int decodeSegment(@NotNull ByteBuffer buffer, int from, int to, int index, int paletteSize) throws NBTException {
+        int max = -1;
+        int value = 0;
+        int varIntLength = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            value |= (b & 127) << (varIntLength++ * 7);
+            if (varIntLength > 5) throw new NBTException("Invalid Schematic: BlockData has invalid length");
+            if ((b & 128) == 128) continue;
+
+            // Widening the storage isn't thread safe, so unknown palette indices must never reach it
+            if (value < 0 || value >= paletteSize) throw new NBTException("Invalid Schematic: BlockData references unknown palette index " + value);
+            if (value > max) max = value;
+            storage.set(index++, value);
+
+            value = 0;
+            varIntLength = 0;
+        }
+        return max;
+    }
+
+    /**
+     * Decodes the given amount of bytes read from the given input, using a small fixed size buffer.
+     * @param input The input.
+     * @param length The amount of bytes to read.
+     * @throws IOException if the input could not be read
+     * @throws NBTException if the block data is invalid
+     */
+    public void decode(@NotNull DataInput input, int length) throws IOException, NBTException {
+        byte[] buffer = new byte[Math.min(BUFFER_SIZE, length)];
+        int remaining = length;
+        while (remaining > 0) {
+            int read = Math.min(buffer.length, remaining);
+            input.readFully(buffer, 0, read);
+            decode(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Finishes decoding.
+     * @param paletteSize The amount of entries in the palette.
+     * @throws NBTException if the block data ended in the middle of a varint, does not cover every block of the
+     *                      schematic or references an unknown palette index
+     */
+    public void finish(int paletteSize) throws NBTException {
+        if (varIntLength != 0) throw new NBTException("Invalid Schematic: BlockData has invalid length");
+        if (index != storage.size()) throw new NBTException("Invalid Schematic: BlockData is smaller than the schematic");
+        if (maxPaletteIndex >= paletteSize) throw new NBTException("Invalid Schematic: BlockData references unknown palette index " + maxPaletteIndex);
+    }
+
+    /**
+     * Gets the amount of blocks decoded so far.
+     * @return The amount of blocks.
+     */
+    public int getBlockCount() {
+        return index;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import dev.hypera.scaffolding.nbt.ByteBufferInputStream;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.CompressedProcesser;
+import org.jglrxavpok.hephaistos.nbt.NBTCompound;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.jglrxavpok.hephaistos.nbt.NBTReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Block entities of a schematic, indexed by the block index of their position in the {@link BlockStorage}.
+ * <br><br>
+ * Entries are kept as the raw, undecoded payload of their compound, and are only decoded when their block is placed.
+ * Loading a schematic therefore only costs a copy of the bytes of its block entities, or nothing at all if it is read
+ * from a buffer.
+ */
+public final class BlockEntities {
+
+    private static final byte[] COMPOUND_HEADER = { 10, 0, 0 };
+
+    private final Int2ObjectMap<ByteBuffer> raw = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectMap<NBTCompound> decoded = new Int2ObjectOpenHashMap<>();
+    private final @Nullable String dataKey;
+    private final String @NotNull [] removedKeys;
+    private boolean[] paletteIndices;
+
+    /**
+     * Creates an empty set of block entities.
+     * @param dataKey The key of the compound holding the data of an entry, or {@code null} if the data is stored
+     *                alongside the other keys of the entry.
+     * @param removedKeys The keys to remove from the data of an entry, such as its position.
+     */
+    public BlockEntities(@Nullable String dataKey, @NotNull String... removedKeys) {
+        this.dataKey = dataKey;
+        this.removedKeys = removedKeys;
+    }
+
+    /**
+     * Adds the raw payload of a block entity compound.
+     * @param index The block index.
+     * @param payload The payload of the compound, without its type and name.
+     */
+    public void put(int index, @NotNull ByteBuffer payload) {
+        raw.put(index, payload);
+        decoded.remove(index);
+    }
+
+    /**
+     * Adds an already decoded block entity compound.
+     * @param index The block index.
+     * @param compound The compound.
+     */
+    public void put(int index, @NotNull NBTCompound compound) {
+        decoded.put(index, compound);
+        raw.remove(index);
+    }
+
+    /**
+     * Marks the palette indices of the blocks that have a block entity, so that blocks without one can be told apart
+     * without a lookup. Must be called once the blocks are decoded.
+     * @param blocks The block storage.
+     */
+    public void index(@NotNull BlockStorage blocks) {
+        boolean[] paletteIndices = new boolean[blocks.getPaletteSize()];
+        for (int index : raw.keySet()) paletteIndices[blocks.get(index)] = true;
+        for (int index : decoded.keySet()) paletteIndices[blocks.get(index)] = true;
+        this.paletteIndices = paletteIndices;
+    }
+
+    /**
+     * Checks whether any block using the given palette index may have a block entity.
+     * @param paletteIndex The palette index.
+     * @return {@code true} if a block using the palette index has a block entity.
+     */
+    public boolean mayContain(int paletteIndex) {
+        return paletteIndices == null || paletteIndices[paletteIndex];
+    }
+
+    /**
+     * Checks whether any block entity lies within the given box of the storage.
+     * @param blocks The block storage.
+     * @param fromX The lowest x position, inclusive.
+     * @param fromY The lowest y position, inclusive.
+     * @param fromZ The lowest z position, inclusive.
+     * @param size The size of the box on each axis.
+     * @return {@code true} if a block entity lies within the box.
+     */
+    public boolean intersects(@NotNull BlockStorage blocks, int fromX, int fromY, int fromZ, int size) {
+        for (int index : raw.keySet()) {
+            if (contains(blocks, index, fromX, fromY, fromZ, size)) return true;
+        }
+        for (int index : decoded.keySet()) {
+            if (contains(blocks, index, fromX, fromY, fromZ, size)) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(@NotNull BlockStorage blocks, int index, int fromX, int fromY, int fromZ, int size) {
+        int x = blocks.getX(index) - fromX;
+        int y = blocks.getY(index) - fromY;
+        int z = blocks.getZ(index) - fromZ;
+        return x >= 0 && y >= 0 && z >= 0 && x < size && y < size && z < size;
+    }
+
+    /**
+     * Adds the data of the block entity at the given block index to a block, decoding it.
+     * @param block The block.
+     * @param index The block index.
+     * @return The block with the data of its block entity, or the block itself if it has no block entity.
+     */
+    public @NotNull Block apply(@NotNull Block block, int index) {
+        NBTCompound data = get(index);
+        return data == null ? block : block.withNbt(data);
+    }
+
+    /**
+     * Gets the data of the block entity at the given block index, decoding it.
+     * @param index The block index.
+     * @return The data of the block entity, or {@code null} if the block has no block entity.
+     */
+    public @Nullable NBTCompound get(int index) {
+        NBTCompound compound = decoded.get(index);
+        if (compound == null) {
+            ByteBuffer payload = raw.get(index);
+            if (payload == null) return null;
+            compound = decode(payload);
+        }
+
+        if (dataKey != null) return compound.getCompound(dataKey);
+        return compound.withRemovedKeys(removedKeys);
+    }
+
+    /**
+     * Gets the block indices of every block entity, in ascending order.
+     * @return The block indices.
+     */
+    public int @NotNull [] indices() {
+        int[] indices = new int[size()];
+        int i = 0;
+        for (int index : raw.keySet()) indices[i++] = index;
+        for (int index : decoded.keySet()) indices[i++] = index;
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    private static @NotNull NBTCompound decode(@NotNull ByteBuffer payload) {
+        try (NBTReader reader = new NBTReader(new SequenceInputStream(new ByteArrayInputStream(COMPOUND_HEADER),
+                new ByteBufferInputStream(payload.duplicate())), CompressedProcesser.NONE)) {
+            return (NBTCompound) reader.readNamed().getSecond();
+        } catch (IOException | NBTException e) {
+            throw new IllegalStateException("Invalid block entity: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the amount of block entities.
+     * @return The amount of block entities.
+     */
+    public int size() {
+        return raw.size() + decoded.size();
+    }
+
+}
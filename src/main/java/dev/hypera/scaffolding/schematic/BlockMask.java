@@ -0,0 +1,147 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Run-length mask of the blocks in a {@link BlockStorage} that are not ignored.
+ * <br><br>
+ * Every row of blocks along the x axis is stored as a list of runs of blocks to place, so ignored blocks (usually
+ * air) are skipped in bulk, and rows without any block to place are skipped entirely.
+ */
+public final class BlockMask {
+
+    private final boolean @NotNull [] ignoredPalette;
+    private final int length;
+    private final int[] rowOffsets;
+    private final int[] runs;
+    private final int blockCount;
+
+    private BlockMask(boolean @NotNull [] ignoredPalette, int length, int[] rowOffsets, int[] runs, int blockCount) {
+        this.ignoredPalette = ignoredPalette;
+        this.length = length;
+        this.rowOffsets = rowOffsets;
+        this.runs = runs;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Computes the mask of the given storage.
+     * @param storage The block storage.
+     * @param ignoredPalette Whether each palette index is ignored.
+     * @return The mask.
+     */
+    public static @NotNull BlockMask compute(@NotNull BlockStorage storage, boolean @NotNull [] ignoredPalette) {
+        int width = storage.getWidth();
+        int rows = storage.getHeight() * storage.getLength();
+        int[] rowOffsets = new int[rows + 1];
+        int[] runs = new int[Math.min(64, rows * 2 + 2)];
+        int runCount = 0;
+        int blockCount = 0;
+
+        int index = 0;
+        for (int row = 0; row < rows; row++) {
+            rowOffsets[row] = runCount;
+            int start = -1;
+            for (int x = 0; x < width; x++, index++) {
+                boolean ignored = ignoredPalette[storage.get(index)];
+                if (!ignored && start < 0) start = x;
+                else if (ignored && start >= 0) {
+                    if (runCount + 2 > runs.length) runs = Arrays.copyOf(runs, runs.length * 2);
+                    runs[runCount++] = start;
+                    runs[runCount++] = x;
+                    blockCount += x - start;
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                if (runCount + 2 > runs.length) runs = Arrays.copyOf(runs, runs.length * 2);
+                runs[runCount++] = start;
+                runs[runCount++] = width;
+                blockCount += width - start;
+            }
+        }
+        rowOffsets[rows] = runCount;
+
+        return new BlockMask(ignoredPalette.clone(), storage.getLength(), rowOffsets, Arrays.copyOf(runs, runCount), blockCount);
+    }
+
+    /**
+     * Checks whether this mask was computed for the given ignored palette indices.
+     * @param ignoredPalette Whether each palette index is ignored.
+     * @return {@code true} if the mask can be reused.
+     */
+    public boolean matches(boolean @NotNull [] ignoredPalette) {
+        return Arrays.equals(this.ignoredPalette, ignoredPalette);
+    }
+
+    /**
+     * Gets the first run of the given row.
+     * @param y The y position, relative to the storage.
+     * @param z The z position, relative to the storage.
+     * @return The index of the first run, pass it to {@link #getRunStart(int)} and {@link #getRunEnd(int)}.
+     */
+    public int getFirstRun(int y, int z) {
+        return rowOffsets[y * length + z] >> 1;
+    }
+
+    /**
+     * Gets the end of the runs of the given row.
+     * @param y The y position, relative to the storage.
+     * @param z The z position, relative to the storage.
+     * @return The index after the last run of the row.
+     */
+    public int getEndRun(int y, int z) {
+        return rowOffsets[y * length + z + 1] >> 1;
+    }
+
+    /**
+     * Gets the x position a run starts at.
+     * @param run The run index.
+     * @return The first x position of the run, inclusive.
+     */
+    public int getRunStart(int run) {
+        return runs[run << 1];
+    }
+
+    /**
+     * Gets the x position a run ends at.
+     * @param run The run index.
+     * @return The last x position of the run, exclusive.
+     */
+    public int getRunEnd(int run) {
+        return runs[(run << 1) + 1];
+    }
+
+    /**
+     * Gets the amount of blocks that are not ignored.
+     * @return The amount of blocks.
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide cache of block state strings, such as {@code minecraft:oak_stairs[facing=north,half=bottom]}, to
+ * state ids.
+ * <br><br>
+ * The same palette strings show up in nearly every schematic, so each string is only parsed once. The cache is
+ * bounded, once full an arbitrary entry is evicted for every new one.
+ */
+public final class BlockStateCache {
+
+    private static final Map<String, Short> CACHE = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private static volatile int maximumSize = 16384;
+
+    private BlockStateCache() {}
+
+    /**
+     * Gets the state id of a block state string, parsing it if it isn't cached yet.
+     * @param input The block state string.
+     * @return The state id, {@code 0} (air) if the block is unknown.
+     */
+    public static short getStateId(@NotNull String input) {
+        Short cached = CACHE.get(input);
+        if (cached != null) {
+            HITS.increment();
+            return cached;
+        }
+
+        MISSES.increment();
+        short stateId = parse(input);
+        if (CACHE.size() >= maximumSize) evict();
+        CACHE.put(input, stateId);
+        return stateId;
+    }
+
+    private static void evict() {
+        Iterator<String> iterator = CACHE.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Parses a block state string without consulting the cache.
+     * @param input The block state string.
+     * @return The state id, {@code 0} (air) if the block is unknown, or the default state of the block if its properties
+     * are invalid.
+     */
+    public static short parse(@NotNull String input) {
+        int open = input.indexOf('[');
+        Block block = Block.fromNamespaceId(open == -1 ? input : input.substring(0, open));
+        if (block == null) return 0;
+        if (open == -1) return block.stateId();
+
+        int close = input.lastIndexOf(']');
+        if (close < open) close = input.length();
+
+        Map<String, String> properties = new HashMap<>(block.properties());
+        int start = open + 1;
+        while (start < close) {
+            int end = input.indexOf(',', start);
+            if (end == -1 || end > close) end = close;
+
+            int separator = input.indexOf('=', start);
+            if (separator != -1 && separator < end) {
+                properties.replace(input.substring(start, separator), input.substring(separator + 1, end));
+            }
+            start = end + 1;
+        }
+
+        try {
+            return block.withProperties(properties).stateId();
+        } catch (Exception e) {
+            // Any invalid property value leaves the block in its default state
+            return block.stateId();
+        }
+    }
+
+    /**
+     * Sets the maximum amount of cached block state strings.
+     * @param maximumSize The maximum size.
+     */
+    public static void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException("Maximum size must not be negative");
+        BlockStateCache.maximumSize = maximumSize;
+        while (CACHE.size() > maximumSize) evict();
+    }
+
+    /**
+     * Removes every cached block state string, and resets the statistics.
+     */
+    public static void clear() {
+        CACHE.clear();
+        HITS.reset();
+        MISSES.reset();
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+}
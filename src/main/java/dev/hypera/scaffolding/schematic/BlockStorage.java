@@ -0,0 +1,322 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact block storage shared by all schematic formats.
+ * <br><br>
+ * Blocks are stored as indices into a palette of state ids, bit-packed into a long array in y/z/x order
+ * ({@code index = (y * length + z) * width + x}). Entries may span two longs, so the memory used scales with the
+ * number of bits needed to address the palette rather than with the number of blocks.
+ * <br><br>
+ * A storage may also be backed by a read-only {@link LongBuffer}, such as a memory-mapped compiled schematic, in
+ * which case it can be read but not modified.
+ */
+public final class BlockStorage {
+
+    private final int width;
+    private final int height;
+    private final int length;
+    private final int size;
+
+    private short[] palette;
+    private int paletteSize;
+    private volatile Block[] blockPalette;
+
+    private int bitsPerEntry;
+    private long mask;
+    private long[] data;
+    private final LongBuffer buffer;
+
+    /**
+     * Creates an empty storage, where every block points at palette index 0.
+     * @param width The size on the x axis.
+     * @param height The size on the y axis.
+     * @param length The size on the z axis.
+     * @param paletteCapacity The expected amount of palette entries, used to size the packed array up front.
+     */
+    public BlockStorage(int width, int height, int length, int paletteCapacity) {
+        if (width < 0 || height < 0 || length < 0) throw new IllegalArgumentException("Invalid dimensions: " + width + "x" + height + "x" + length);
+        long size = (long) width * height * length;
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Schematic is too large: " + size + " blocks");
+
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        this.size = (int) size;
+        this.palette = new short[Math.max(1, paletteCapacity)];
+        this.bitsPerEntry = bitsFor(paletteCapacity);
+        this.mask = (1L << bitsPerEntry) - 1;
+        this.data = new long[longsFor(this.size, bitsPerEntry)];
+        this.buffer = null;
+    }
+
+    private BlockStorage(int width, int height, int length, short @NotNull [] palette, int bitsPerEntry, @NotNull LongBuffer buffer) {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        this.size = width * height * length;
+        this.palette = palette;
+        this.paletteSize = palette.length;
+        this.bitsPerEntry = bitsPerEntry;
+        this.mask = (1L << bitsPerEntry) - 1;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a read-only storage using the given buffer as its packed array, without copying it.
+     * @param width The size on the x axis.
+     * @param height The size on the y axis.
+     * @param length The size on the z axis.
+     * @param palette The state ids of the palette.
+     * @param bitsPerEntry The amount of bits per packed entry.
+     * @param buffer The packed array, as written by {@link #getWord(int)}.
+     * @return The storage.
+     * @throws IllegalArgumentException if the sizes do not match or a packed value is outside of the palette
+     */
+    public static @NotNull BlockStorage wrap(int width, int height, int length, short @NotNull [] palette, int bitsPerEntry, @NotNull LongBuffer buffer) {
+        if (width < 0 || height < 0 || length < 0) throw new IllegalArgumentException("Invalid dimensions: " + width + "x" + height + "x" + length);
+        long size = (long) width * height * length;
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Schematic is too large: " + size + " blocks");
+        if (bitsPerEntry < bitsFor(palette.length) || bitsPerEntry > 32) throw new IllegalArgumentException("Invalid bits per entry: " + bitsPerEntry);
+        if (buffer.remaining() != longsFor((int) size, bitsPerEntry)) throw new IllegalArgumentException("Invalid packed array length: " + buffer.remaining());
+
+        LongBuffer data = buffer.slice();
+        if ((1L << bitsPerEntry) > palette.length) {
+            // A packed value outside of the palette would fail every lookup of its block, so it is rejected up front
+            long mask = (1L << bitsPerEntry) - 1;
+            for (int i = 0; i < size; i++) {
+                int value = read(data, i, bitsPerEntry, mask);
+                if (value < 0 || value >= palette.length) throw new IllegalArgumentException("Invalid palette index " + Integer.toUnsignedString(value) + " at block " + i);
+            }
+        }
+        return new BlockStorage(width, height, length, palette, bitsPerEntry, data);
+    }
+
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 2) return 1;
+        return 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    private static int longsFor(int size, int bitsPerEntry) {
+        return (int) (((long) size * bitsPerEntry + 63) >>> 6);
+    }
+
+    /**
+     * Adds a state id to the palette.
+     * @param stateId The state id.
+     * @return The palette index of the state id.
+     */
+    public int addPaletteEntry(short stateId) {
+        setPaletteEntry(paletteSize, stateId);
+        return paletteSize - 1;
+    }
+
+    /**
+     * Sets the state id of a palette index, growing the palette if needed.
+     * @param paletteIndex The palette index.
+     * @param stateId The state id.
+     */
+    public void setPaletteEntry(int paletteIndex, short stateId) {
+        if (buffer != null) throw new IllegalStateException("Block storage is read-only");
+        if (paletteIndex >= palette.length) palette = Arrays.copyOf(palette, Math.max(paletteIndex + 1, palette.length * 2));
+        palette[paletteIndex] = stateId;
+        if (paletteIndex >= paletteSize) paletteSize = paletteIndex + 1;
+        this.blockPalette = null;
+    }
+
+    /**
+     * Gets the palette index stored at the given block index.
+     * @param index The block index.
+     * @return The palette index.
+     */
+    public int get(int index) {
+        if (buffer != null) return read(buffer, index, bitsPerEntry, mask);
+        return read(data, index, bitsPerEntry, mask);
+    }
+
+    /**
+     * Sets the palette index stored at the given block index, widening the packed array if the palette index does
+     * not fit into the current amount of bits per entry.
+     * @param index The block index.
+     * @param paletteIndex The palette index.
+     */
+    public void set(int index, int paletteIndex) {
+        if (buffer != null) throw new IllegalStateException("Block storage is read-only");
+        if ((paletteIndex & ~mask) != 0) resize(bitsFor(paletteIndex + 1));
+        write(data, index, bitsPerEntry, mask, paletteIndex);
+    }
+
+    private void resize(int newBitsPerEntry) {
+        // Entries only ever move towards the end of the array, so widening from the last entry down is safe in place
+        long[] resized = Arrays.copyOf(data, longsFor(size, newBitsPerEntry));
+        long newMask = (1L << newBitsPerEntry) - 1;
+        for (int index = size - 1; index >= 0; index--) {
+            write(resized, index, newBitsPerEntry, newMask, read(resized, index, bitsPerEntry, mask));
+        }
+
+        this.bitsPerEntry = newBitsPerEntry;
+        this.mask = newMask;
+        this.data = resized;
+    }
+
+    private static int read(long[] data, int index, int bitsPerEntry, long mask) {
+        long bitIndex = (long) index * bitsPerEntry;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        long value = data[word] >>> shift;
+        if (shift + bitsPerEntry > 64) value |= data[word + 1] << (64 - shift);
+        return (int) (value & mask);
+    }
+
+    private static int read(LongBuffer data, int index, int bitsPerEntry, long mask) {
+        long bitIndex = (long) index * bitsPerEntry;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        long value = data.get(word) >>> shift;
+        if (shift + bitsPerEntry > 64) value |= data.get(word + 1) << (64 - shift);
+        return (int) (value & mask);
+    }
+
+    private static void write(long[] data, int index, int bitsPerEntry, long mask, int value) {
+        long bitIndex = (long) index * bitsPerEntry;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        data[word] = (data[word] & ~(mask << shift)) | ((long) value << shift);
+        if (shift + bitsPerEntry > 64) {
+            int spill = 64 - shift;
+            data[word + 1] = (data[word + 1] & ~(mask >>> spill)) | ((long) value >>> spill);
+        }
+    }
+
+    /**
+     * Gets the state id stored at the given block index.
+     * @param index The block index.
+     * @return The state id.
+     */
+    public short getStateId(int index) {
+        return palette[get(index)];
+    }
+
+    /**
+     * Gets the state id stored at the given position.
+     * @param x The x position, relative to the storage.
+     * @param y The y position, relative to the storage.
+     * @param z The z position, relative to the storage.
+     * @return The state id.
+     */
+    public short getStateId(int x, int y, int z) {
+        return getStateId(index(x, y, z));
+    }
+
+    /**
+     * Resolves every palette entry to a Minestom block.
+     * The result is cached until the palette changes, and must not be modified.
+     * @return The blocks, indexed by palette index. Entries with unknown state ids are {@code null}.
+     */
+    public Block @NotNull [] resolvePalette() {
+        Block[] blocks = this.blockPalette;
+        if (blocks == null) {
+            blocks = new Block[paletteSize];
+            for (int i = 0; i < paletteSize; i++) blocks[i] = Block.fromStateId(palette[i]);
+            this.blockPalette = blocks;
+        }
+        return blocks;
+    }
+
+    public int index(int x, int y, int z) {
+        return (y * length + z) * width + x;
+    }
+
+    public int getX(int index) {
+        return index % width;
+    }
+
+    public int getY(int index) {
+        return index / (width * length);
+    }
+
+    public int getZ(int index) {
+        return (index / width) % length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+    public short getPaletteEntry(int paletteIndex) {
+        return palette[paletteIndex];
+    }
+
+    public int getBitsPerEntry() {
+        return bitsPerEntry;
+    }
+
+    /**
+     * Checks whether this storage is backed by a read-only buffer.
+     * @return {@code true} if the storage can not be modified.
+     */
+    public boolean isReadOnly() {
+        return buffer != null;
+    }
+
+    /**
+     * Gets the amount of longs in the packed array.
+     * @return The amount of longs.
+     */
+    public int getWordCount() {
+        return buffer != null ? buffer.capacity() : longsFor(size, bitsPerEntry);
+    }
+
+    /**
+     * Gets a long of the packed array, entries are packed from the lowest bit up and may span two longs.
+     * @param word The index of the long.
+     * @return The long.
+     */
+    public long getWord(int word) {
+        return buffer != null ? buffer.get(word) : data[word];
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Process-wide lookup table of legacy (pre-1.13) block ids and data values, as used by MCEdit schematics, to state
+ * ids.
+ * <br><br>
+ * The table is flat and indexed by {@code legacyId << 4 | data}, so converting a block is a single array lookup.
+ * It is built from a bundled mapping the first time it is used, parsing every block state string once.
+ */
+public final class LegacyBlocks {
+
+    private static final String RESOURCE = "legacy_blocks.txt";
+
+    private LegacyBlocks() {}
+
+    /**
+     * Gets the state id of a legacy block.
+     * @param legacyId The legacy block id, at most 12 bits.
+     * @param data The data value, at most 4 bits.
+     * @return The state id, {@code 0} (air) if the block is unknown.
+     */
+    public static short getStateId(int legacyId, int data) {
+        return Table.STATE_IDS[(legacyId & 0xFFF) << 4 | (data & 0xF)];
+    }
+
+    private static final class Table {
+
+        private static final short[] STATE_IDS = load();
+
+        private static short @NotNull [] load() {
+            short[] stateIds = new short[1 << 16];
+            boolean[] mapped = new boolean[1 << 16];
+
+            InputStream resource = LegacyBlocks.class.getResourceAsStream(RESOURCE);
+            if (resource == null) throw new IllegalStateException("Missing " + RESOURCE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank() || line.startsWith("#")) continue;
+                    int colon = line.indexOf(':');
+                    int space = line.indexOf(' ', colon);
+                    int key = Integer.parseInt(line, 0, colon, 10) << 4 | Integer.parseInt(line, colon + 1, space, 10);
+                    stateIds[key] = BlockStateCache.parse(line.substring(space + 1).trim());
+                    mapped[key] = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // Data values without a mapping of their own, such as unused bits, take the block of data value 0
+            for (int key = 0; key < stateIds.length; key++) {
+                if (!mapped[key]) stateIds[key] = stateIds[key & ~0xF];
+            }
+            return stateIds;
+        }
+
+    }
+
+}
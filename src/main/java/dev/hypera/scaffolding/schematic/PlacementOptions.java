@@ -0,0 +1,269 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options controlling how a schematic is placed.
+ */
+public final class PlacementOptions {
+
+    /**
+     * Places every block of the schematic.
+     */
+    public static final @NotNull PlacementOptions DEFAULT = builder().build();
+
+    private final @NotNull BitSet ignoredStates;
+    private final int maxBlocksPerTick;
+    private final long maxNanosPerTick;
+    private final boolean onlyChanged;
+    private final @NotNull List<Point> focus;
+    private final boolean focusPlayers;
+    private final int maxConcurrentChunks;
+
+    private PlacementOptions(@NotNull BitSet ignoredStates, int maxBlocksPerTick, long maxNanosPerTick, boolean onlyChanged,
+                             @NotNull List<Point> focus, boolean focusPlayers, int maxConcurrentChunks) {
+        this.ignoredStates = ignoredStates;
+        this.maxBlocksPerTick = maxBlocksPerTick;
+        this.maxNanosPerTick = maxNanosPerTick;
+        this.onlyChanged = onlyChanged;
+        this.focus = focus;
+        this.focusPlayers = focusPlayers;
+        this.maxConcurrentChunks = maxConcurrentChunks;
+    }
+
+    /**
+     * Creates a builder for {@link PlacementOptions}.
+     * @return The builder.
+     */
+    public static @NotNull Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Checks whether blocks with the given state id are left untouched.
+     * @param stateId The state id.
+     * @return {@code true} if the state id is ignored.
+     */
+    public boolean isIgnored(int stateId) {
+        return stateId >= 0 && ignoredStates.get(stateId);
+    }
+
+    /**
+     * Checks whether any state id is ignored.
+     * @return {@code true} if placement may skip blocks.
+     */
+    public boolean skipsBlocks() {
+        return !ignoredStates.isEmpty();
+    }
+
+    /**
+     * Gets the maximum amount of blocks a scheduled build places per tick.
+     * @return The block budget.
+     */
+    public int getMaxBlocksPerTick() {
+        return maxBlocksPerTick;
+    }
+
+    /**
+     * Gets the maximum time a scheduled build spends placing blocks per tick.
+     * @return The time budget, in nanoseconds.
+     */
+    public long getMaxNanosPerTick() {
+        return maxNanosPerTick;
+    }
+
+    /**
+     * Checks whether only the blocks that differ from the current blocks of the instance are placed.
+     * @return {@code true} if unchanged blocks are skipped.
+     */
+    public boolean isOnlyChanged() {
+        return onlyChanged;
+    }
+
+    /**
+     * Gets the points the chunks closest to are placed first.
+     * @return The focus points.
+     */
+    public @NotNull List<Point> getFocus() {
+        return focus;
+    }
+
+    /**
+     * Checks whether the chunks closest to the players of the instance are placed first.
+     * @return {@code true} if the players are focus points.
+     */
+    public boolean isFocusPlayers() {
+        return focusPlayers;
+    }
+
+    /**
+     * Gets the maximum amount of chunks a build loads and places at once.
+     * @return The chunk limit.
+     */
+    public int getMaxConcurrentChunks() {
+        return maxConcurrentChunks;
+    }
+
+    public static class Builder {
+
+        private final BitSet ignoredStates = new BitSet();
+        private int maxBlocksPerTick = Integer.MAX_VALUE;
+        private long maxNanosPerTick = Long.MAX_VALUE;
+        private boolean onlyChanged;
+        private final List<Point> focus = new ArrayList<>();
+        private boolean focusPlayers;
+        private int maxConcurrentChunks = 32;
+
+        private Builder() {}
+
+        /**
+         * Specifies whether air blocks are left untouched instead of being placed.
+         * @param skipAir Whether air is skipped.
+         * @return This builder.
+         */
+        public @NotNull Builder skipAir(boolean skipAir) {
+            for (Block air : new Block[] { Block.AIR, Block.CAVE_AIR, Block.VOID_AIR }) {
+                ignoredStates.set(air.stateId(), skipAir);
+            }
+            return this;
+        }
+
+        /**
+         * Leaves the given block states untouched instead of placing them.
+         * @param blocks The block states.
+         * @return This builder.
+         */
+        public @NotNull Builder ignore(@NotNull Block... blocks) {
+            for (Block block : blocks) ignoredStates.set(block.stateId());
+            return this;
+        }
+
+        /**
+         * Leaves every state of the given block untouched instead of placing it.
+         * @param block The block.
+         * @return This builder.
+         */
+        public @NotNull Builder ignoreAllStates(@NotNull Block block) {
+            for (Block state : block.possibleStates()) ignoredStates.set(state.stateId());
+            return this;
+        }
+
+        /**
+         * Specifies the maximum amount of blocks a scheduled build places per tick.
+         * The budget is checked between chunk sections, so a tick may exceed it by up to one section.
+         * @param maxBlocksPerTick The block budget.
+         * @return This builder.
+         */
+        public @NotNull Builder maxBlocksPerTick(int maxBlocksPerTick) {
+            if (maxBlocksPerTick <= 0) throw new IllegalArgumentException("Block budget must be positive");
+            this.maxBlocksPerTick = maxBlocksPerTick;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum time a scheduled build spends placing blocks per tick.
+         * The budget is checked between chunk sections, so a tick may exceed it by up to one section.
+         * @param maxTimePerTick The time budget.
+         * @return This builder.
+         */
+        public @NotNull Builder maxTimePerTick(@NotNull Duration maxTimePerTick) {
+            if (maxTimePerTick.isNegative() || maxTimePerTick.isZero()) throw new IllegalArgumentException("Time budget must be positive");
+            this.maxNanosPerTick = maxTimePerTick.toNanos();
+            return this;
+        }
+
+        /**
+         * Specifies whether the schematic is compared against the current blocks of the instance, placing only the
+         * blocks that differ. Chunks that already match are not written or sent at all, which makes resetting a
+         * lightly modified area, such as an arena between rounds, much cheaper than placing it again.
+         * @param onlyChanged Whether unchanged blocks are skipped.
+         * @return This builder.
+         */
+        public @NotNull Builder onlyChanged(boolean onlyChanged) {
+            this.onlyChanged = onlyChanged;
+            return this;
+        }
+
+        /**
+         * Places the chunks closest to the given points first, so the blocks around them appear before the rest of
+         * the build.
+         * @param points The focus points.
+         * @return This builder.
+         */
+        public @NotNull Builder focus(@NotNull Point... points) {
+            Collections.addAll(focus, points);
+            return this;
+        }
+
+        /**
+         * Places the chunks closest to the given points first, so the blocks around them appear before the rest of
+         * the build.
+         * @param points The focus points.
+         * @return This builder.
+         */
+        public @NotNull Builder focus(@NotNull Collection<? extends Point> points) {
+            focus.addAll(points);
+            return this;
+        }
+
+        /**
+         * Specifies whether the chunks closest to the players of the instance, where they are when the build starts,
+         * are placed first.
+         * @param focusPlayers Whether the players are focus points.
+         * @return This builder.
+         */
+        public @NotNull Builder focusPlayers(boolean focusPlayers) {
+            this.focusPlayers = focusPlayers;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum amount of chunks a build loads and places at once, 32 by default.
+         * @param maxConcurrentChunks The chunk limit.
+         * @return This builder.
+         */
+        public @NotNull Builder maxConcurrentChunks(int maxConcurrentChunks) {
+            if (maxConcurrentChunks <= 0) throw new IllegalArgumentException("Chunk limit must be positive");
+            this.maxConcurrentChunks = maxConcurrentChunks;
+            return this;
+        }
+
+        public @NotNull PlacementOptions build() {
+            return new PlacementOptions((BitSet) ignoredStates.clone(), maxBlocksPerTick, maxNanosPerTick, onlyChanged,
+                    List.copyOf(focus), focusPlayers, maxConcurrentChunks);
+        }
+
+    }
+
+}
@@ -22,11 +22,18 @@
  */
 package dev.hypera.scaffolding.schematic;
 
+import dev.hypera.scaffolding.instance.ScheduledBuild;
+import dev.hypera.scaffolding.instance.SchematicPlacer;
+import dev.hypera.scaffolding.instance.UndoSnapshot;
 import dev.hypera.scaffolding.region.Region;
 import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
 import net.minestom.server.instance.Instance;
 import net.minestom.server.instance.block.Block;
+import net.minestom.server.instance.palette.Palette;
+import net.minestom.server.world.biomes.Biome;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jglrxavpok.hephaistos.nbt.CompressedProcesser;
 import org.jglrxavpok.hephaistos.nbt.NBTCompound;
 import org.jglrxavpok.hephaistos.nbt.NBTException;
@@ -35,6 +42,7 @@ import org.jglrxavpok.hephaistos.nbt.NBTReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
 
 public interface Schematic {
@@ -48,7 +56,42 @@ public interface Schematic {
     void read(@NotNull NBTCompound nbtTag) throws NBTException;
     void write(@NotNull OutputStream outputStream, @NotNull Region region) throws IOException;
 
-    CompletableFuture<Region> build(Instance instance, Point position);
+    default CompletableFuture<Region> build(Instance instance, Point position) {
+        return build(instance, position, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Places the schematic at the given position.
+     * @param instance the instance to place the schematic in
+     * @param position the position to place the schematic at
+     * @param options the placement options
+     * @return a future completed with the region of the schematic once it has been placed
+     */
+    CompletableFuture<Region> build(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options);
+
+    /**
+     * Places the schematic at the given position, capturing the blocks it overwrites in the same pass, so the
+     * placement can be undone.
+     * @param instance the instance to place the schematic in
+     * @param position the position to place the schematic at
+     * @param options the placement options
+     * @return a future completed with the snapshot of the overwritten blocks once the schematic has been placed
+     */
+    default @NotNull CompletableFuture<UndoSnapshot> buildUndoable(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        return SchematicPlacer.placeUndoable(this, instance, position, options);
+    }
+
+    /**
+     * Places the schematic at the given position, spreading the work across ticks so that no tick exceeds the
+     * block or time budget of the given options.
+     * @param instance the instance to place the schematic in
+     * @param position the position to place the schematic at
+     * @param options the placement options
+     * @return the handle of the build, with its progress and completion
+     */
+    default @NotNull ScheduledBuild buildScheduled(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        return SchematicPlacer.schedule(this, instance, position, options);
+    }
 
     short getWidth();
     short getHeight();
@@ -62,6 +105,203 @@ public interface Schematic {
      * Applies the schematic to the given block setter.
      * @param setter the block setter
      */
-    void apply(@NotNull Block.Setter setter);
+    default void apply(@NotNull Block.Setter setter) {
+        apply(setter, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Applies the schematic to the given block setter, skipping the blocks ignored by the given options.
+     * @param setter the block setter
+     * @param options the placement options
+     */
+    void apply(@NotNull Block.Setter setter, @NotNull PlacementOptions options);
+
+    /**
+     * Applies the part of the schematic that lies within the given bounds to the given block setter,
+     * as if the schematic was placed at the given position.
+     * Blocks with an unknown state id are skipped.
+     * @param setter the block setter
+     * @param position the position the schematic is placed at
+     * @param min the lowest absolute block position to apply, inclusive
+     * @param max the highest absolute block position to apply, inclusive
+     */
+    default void apply(@NotNull Block.Setter setter, @NotNull Point position, @NotNull Point min, @NotNull Point max) {
+        apply(setter, position, min, max, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Applies the part of the schematic that lies within the given bounds to the given block setter,
+     * as if the schematic was placed at the given position, skipping the blocks ignored by the given options.
+     * Blocks with an unknown state id are skipped.
+     * @param setter the block setter
+     * @param position the position the schematic is placed at
+     * @param min the lowest absolute block position to apply, inclusive
+     * @param max the highest absolute block position to apply, inclusive
+     * @param options the placement options
+     */
+    void apply(@NotNull Block.Setter setter, @NotNull Point position, @NotNull Point min, @NotNull Point max, @NotNull PlacementOptions options);
+
+    /**
+     * Visits the state id of every block of the schematic, at its position relative to the position the schematic
+     * is placed at.
+     * @param visitor the block visitor
+     */
+    default void forEachBlock(@NotNull BlockVisitor visitor) {
+        forEachBlock(visitor, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Visits the state id of every block of the schematic that isn't ignored by the given options, at its position
+     * relative to the position the schematic is placed at.
+     * @param visitor the block visitor
+     * @param options the placement options
+     */
+    default void forEachBlock(@NotNull BlockVisitor visitor, @NotNull PlacementOptions options) {
+        apply((x, y, z, block) -> visitor.visit(x, y, z, block.stateId()), options);
+    }
+
+    /**
+     * Visits every chunk section the schematic overlaps when placed at the given position.
+     * @param position the position the schematic is placed at
+     * @param visitor the section visitor
+     * @see SectionVisitor
+     */
+    default void forEachSection(@NotNull Point position, @NotNull SectionVisitor visitor) {
+        forEachSection(position, visitor, PlacementOptions.DEFAULT);
+    }
+
+    /**
+     * Visits every chunk section the schematic overlaps when placed at the given position, leaving out the blocks
+     * ignored by the given options.
+     * @param position the position the schematic is placed at
+     * @param visitor the section visitor
+     * @param options the placement options
+     * @see SectionVisitor
+     */
+    default void forEachSection(@NotNull Point position, @NotNull SectionVisitor visitor, @NotNull PlacementOptions options) {
+        int minX = position.blockX() + getOffsetX();
+        int minY = position.blockY() + getOffsetY();
+        int minZ = position.blockZ() + getOffsetZ();
+        int maxX = minX + getWidth() - 1;
+        int maxY = minY + getHeight() - 1;
+        int maxZ = minZ + getLength() - 1;
+
+        short[] stateIds = new short[4096];
+        for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+            for (int sectionZ = minZ >> 4; sectionZ <= maxZ >> 4; sectionZ++) {
+                for (int sectionX = minX >> 4; sectionX <= maxX >> 4; sectionX++) {
+                    Arrays.fill(stateIds, (short) -1);
+                    apply((x, y, z, block) -> stateIds[(y & 15) << 8 | (z & 15) << 4 | (x & 15)] = block.stateId(), position,
+                            new Vec(sectionX << 4, sectionY << 4, sectionZ << 4), new Vec((sectionX << 4) + 15, (sectionY << 4) + 15, (sectionZ << 4) + 15), options);
+                    visitor.visit(sectionX, sectionY, sectionZ, stateIds);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a view of this schematic rotated clockwise, as seen from above, around the position it is placed at.
+     * The view shares the blocks of this schematic, and is read-only: it can't be loaded into, its {@code read}
+     * methods throw {@link UnsupportedOperationException}.
+     * @param degrees the angle, must be a multiple of 90
+     * @return the rotated view
+     */
+    default @NotNull Schematic rotated(int degrees) {
+        return TransformedSchematic.of(this, Transform.rotation(degrees));
+    }
+
+    /**
+     * Gets a view of this schematic mirrored along the x axis, swapping east and west.
+     * The view shares the blocks of this schematic, and is read-only: it can't be loaded into, its {@code read}
+     * methods throw {@link UnsupportedOperationException}.
+     * @return the mirrored view
+     */
+    default @NotNull Schematic mirroredX() {
+        return TransformedSchematic.of(this, Transform.mirrorX());
+    }
+
+    /**
+     * Gets a view of this schematic mirrored along the z axis, swapping north and south.
+     * The view shares the blocks of this schematic, and is read-only: it can't be loaded into, its {@code read}
+     * methods throw {@link UnsupportedOperationException}.
+     * @return the mirrored view
+     */
+    default @NotNull Schematic mirroredZ() {
+        return TransformedSchematic.of(this, Transform.mirrorZ());
+    }
+
+    /**
+     * Writes a whole chunk section straight into its block palette, as if the schematic was placed at the given
+     * position, instead of setting its 4096 blocks one by one.
+     * This is only possible if the schematic covers the whole section and places every block of it.
+     * @param palette the block palette of the section
+     * @param position the position the schematic is placed at
+     * @param sectionX the x coordinate of the section
+     * @param sectionY the y coordinate of the section
+     * @param sectionZ the z coordinate of the section
+     * @param options the placement options
+     * @return {@code true} if the section was written, {@code false} if nothing was written
+     */
+    default boolean applySection(@NotNull Palette palette, @NotNull Point position, int sectionX, int sectionY, int sectionZ,
+                                 @NotNull PlacementOptions options) {
+        return false;
+    }
+
+    /**
+     * Checks whether the schematic holds biome data.
+     * @return {@code true} if {@link #getBiome(int, int, int)} may return a biome
+     */
+    default boolean hasBiomes() {
+        return false;
+    }
+
+    /**
+     * Gets the biome at the given position, relative to the position the schematic is placed at.
+     * @param x the x position
+     * @param y the y position
+     * @param z the z position
+     * @return the biome, or {@code null} if the schematic has no biome at the position
+     */
+    default @Nullable Biome getBiome(int x, int y, int z) {
+        return null;
+    }
+
+    /**
+     * Visitor of the blocks of a schematic, by state id.
+     */
+    @FunctionalInterface
+    interface BlockVisitor {
+
+        /**
+         * Visits a block.
+         * @param x the x position
+         * @param y the y position
+         * @param z the z position
+         * @param stateId the state id of the block
+         */
+        void visit(int x, int y, int z, int stateId);
+
+    }
+
+    /**
+     * Visitor of the blocks of a schematic, a chunk section at a time.
+     * <br><br>
+     * The state ids of a section are indexed by {@code y << 8 | z << 4 | x}, relative to the section, the same order
+     * chunk section palettes use. Positions the schematic doesn't place a block at hold {@code -1}. The array is
+     * reused for every section, so it must not be kept once the visitor returns.
+     */
+    @FunctionalInterface
+    interface SectionVisitor {
+
+        /**
+         * Visits a chunk section.
+         * @param sectionX the x coordinate of the section
+         * @param sectionY the y coordinate of the section
+         * @param sectionZ the z coordinate of the section
+         * @param stateIds the state ids of the section
+         */
+        void visit(int sectionX, int sectionY, int sectionZ, short @NotNull [] stateIds);
+
+    }
 
 }
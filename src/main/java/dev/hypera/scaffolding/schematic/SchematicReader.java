@@ -0,0 +1,253 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import dev.hypera.scaffolding.metrics.ReadRecorder;
+import dev.hypera.scaffolding.nbt.ByteBufferInputStream;
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.schematic.impl.CompiledSchematic;
+import dev.hypera.scaffolding.schematic.impl.MCEditSchematic;
+import dev.hypera.scaffolding.schematic.impl.SpongeSchematic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming schematic reader, which identifies the schematic format from the tags it sees and decodes the block
+ * data as it arrives.
+ */
+public final class SchematicReader {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private SchematicReader() {}
+
+    /**
+     * Automatically detects the type of schematic and parses the input stream, which may be GZIP, zlib or not
+     * compressed at all.
+     * @param inputStream Schematic input, closed once read
+     * @return parsed schematic, or {@code null} if the format is unknown
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    public static @Nullable Schematic read(@NotNull InputStream inputStream) throws IOException, NBTException {
+        ReadRecorder recorder = ReadRecorder.start();
+        BufferedInputStream buffered = new BufferedInputStream(recorder == null ? inputStream : recorder.counting(inputStream), BUFFER_SIZE);
+        buffered.mark(4);
+        byte[] magic = buffered.readNBytes(4);
+        buffered.reset();
+        if (CompiledSchematic.isCompiled(magic)) {
+            CompiledSchematic schematic = new CompiledSchematic();
+            schematic.read(buffered);
+            if (recorder != null) recorder.finish(schematic);
+            return schematic;
+        }
+
+        try (NBTInputStream input = open(buffered, recorder)) {
+            input.readRootCompound();
+            return read(input, recorder);
+        }
+    }
+
+    /**
+     * Automatically detects the type of schematic and parses the remaining tags of the root compound.
+     * @param input The stream, positioned inside the root compound.
+     * @return parsed schematic, or {@code null} if the format is unknown
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    public static @Nullable Schematic read(@NotNull NBTInputStream input) throws IOException, NBTException {
+        return read(input, null);
+    }
+
+    private static @Nullable Schematic read(@NotNull NBTInputStream input, @Nullable ReadRecorder recorder) throws IOException, NBTException {
+        // Tags are kept aside until a tag tells the formats apart, as compounds have no fixed order. Shared tags, such
+        // as the sizes or MCEdit and version 1 Sponge TileEntities, can come first
+        List<PendingTag> pending = new ArrayList<>();
+
+        byte type;
+        while ((type = input.readTagType()) != NBTInputStream.TAG_END) {
+            String name = input.readTagName();
+            AbstractSchematic schematic = detect(name, type);
+
+            if (schematic == null) {
+                pending.add(new PendingTag(name, type, input.readPayload(type)));
+                continue;
+            }
+
+            schematic.recorder = recorder;
+            for (PendingTag tag : pending) {
+                try (NBTInputStream replay = new NBTInputStream(tag.payload())) {
+                    schematic.readTag(replay, tag.name(), tag.type());
+                }
+            }
+            if (!schematic.readTag(input, name, type)) input.skipPayload(type);
+            schematic.readTags(input);
+            return schematic;
+        }
+
+        return null;
+    }
+
+    /**
+     * Automatically detects the type of schematic and parses the file.
+     * <br><br>
+     * The file is memory-mapped, and its compression (GZIP, zlib or none) is detected from its first bytes.
+     * Uncompressed schematics are decoded straight from the mapped file, and compiled schematics use the mapped file
+     * as their block storage.
+     * @param path Schematic path
+     * @return parsed schematic, or {@code null} if the format is unknown
+     * @throws IOException if the file is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    public static @Nullable Schematic read(@NotNull Path path) throws IOException, NBTException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Files too large to be mapped at once are streamed instead
+            if (channel.size() > Integer.MAX_VALUE) return read(Channels.newInputStream(channel));
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    /**
+     * Automatically detects the type of schematic and parses the buffer, which may be GZIP, zlib or not compressed
+     * at all.
+     * Uncompressed schematics are decoded straight from the buffer, and compiled schematics use the buffer as their
+     * block storage, so it must not be modified afterwards.
+     * @param buffer Schematic data
+     * @return parsed schematic, or {@code null} if the format is unknown
+     * @throws IOException if the buffer is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    public static @Nullable Schematic read(@NotNull ByteBuffer buffer) throws IOException, NBTException {
+        ReadRecorder recorder = ReadRecorder.start();
+        if (recorder != null) recorder.addBytesRead(buffer.remaining());
+        if (CompiledSchematic.isCompiled(buffer)) {
+            CompiledSchematic schematic = new CompiledSchematic();
+            schematic.read(buffer);
+            if (recorder != null) recorder.finish(schematic);
+            return schematic;
+        }
+
+        try (NBTInputStream input = open(buffer, recorder)) {
+            input.readRootCompound();
+            return read(input, recorder);
+        }
+    }
+
+    /**
+     * Reads the file into memory, decompressing it if it is GZIP or zlib compressed, without parsing it.
+     * This is the I/O bound part of reading a schematic, the result can be parsed with {@link #read(ByteBuffer)}.
+     * @param path Schematic path
+     * @return the uncompressed schematic data
+     * @throws IOException if the file is invalid
+     */
+    public static @NotNull ByteBuffer load(@NotNull Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        Compression compression = detectCompression(bytes.length > 0 ? bytes[0] & 0xFF : -1, bytes.length > 1 ? bytes[1] & 0xFF : -1);
+        if (compression == Compression.NONE) return ByteBuffer.wrap(bytes);
+
+        InputStream compressed = new ByteArrayInputStream(bytes);
+        try (InputStream input = compression == Compression.GZIP ? new GZIPInputStream(compressed, BUFFER_SIZE) : new InflaterInputStream(compressed)) {
+            return ByteBuffer.wrap(input.readAllBytes());
+        }
+    }
+
+    static @NotNull NBTInputStream open(@NotNull InputStream inputStream, @Nullable ReadRecorder recorder) throws IOException {
+        BufferedInputStream buffered = inputStream instanceof BufferedInputStream stream ? stream : new BufferedInputStream(inputStream, BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+
+        return switch (detectCompression(first, second)) {
+            case GZIP -> new NBTInputStream(new BufferedInputStream(timing(new GZIPInputStream(buffered, BUFFER_SIZE), recorder), BUFFER_SIZE));
+            case ZLIB -> new NBTInputStream(new BufferedInputStream(timing(new InflaterInputStream(buffered, new Inflater(), BUFFER_SIZE), recorder), BUFFER_SIZE));
+            case NONE -> new NBTInputStream(buffered);
+        };
+    }
+
+    static @NotNull NBTInputStream open(@NotNull ByteBuffer buffer, @Nullable ReadRecorder recorder) throws IOException {
+        int position = buffer.position();
+        int first = buffer.remaining() > 0 ? buffer.get(position) & 0xFF : -1;
+        int second = buffer.remaining() > 1 ? buffer.get(position + 1) & 0xFF : -1;
+
+        return switch (detectCompression(first, second)) {
+            case GZIP -> new NBTInputStream(new BufferedInputStream(timing(new GZIPInputStream(new ByteBufferInputStream(buffer), BUFFER_SIZE), recorder), BUFFER_SIZE));
+            case ZLIB -> new NBTInputStream(new BufferedInputStream(timing(new InflaterInputStream(new ByteBufferInputStream(buffer), new Inflater(), BUFFER_SIZE), recorder), BUFFER_SIZE));
+            case NONE -> new NBTInputStream(buffer);
+        };
+    }
+
+    private static @NotNull InputStream timing(@NotNull InputStream inputStream, @Nullable ReadRecorder recorder) {
+        return recorder == null ? inputStream : recorder.timing(inputStream);
+    }
+
+    private static @NotNull Compression detectCompression(int first, int second) {
+        if (first == 0x1F && second == 0x8B) return Compression.GZIP;
+        // zlib header: deflate with a window of at most 32 KiB, and a check value making the header a multiple of 31
+        if (first != -1 && second != -1 && (first & 0x0F) == 8 && (first >> 4) <= 7 && ((first << 8) | second) % 31 == 0) {
+            return Compression.ZLIB;
+        }
+        return Compression.NONE;
+    }
+
+    private enum Compression {
+        NONE,
+        GZIP,
+        ZLIB
+    }
+
+    private record PendingTag(@NotNull String name, byte type, @NotNull ByteBuffer payload) {}
+
+    private static @Nullable AbstractSchematic detect(@NotNull String name, byte type) {
+        return switch (name) {
+            // Version 3 Sponge schematics store their blocks in a compound, MCEdit schematics in a byte array
+            case "Blocks" -> type == NBTInputStream.TAG_COMPOUND ? new SpongeSchematic() : new MCEditSchematic();
+            // Version 3 Sponge schematics store their block data in the Blocks compound, and the WorldEdit offsets in
+            // Metadata, so these are only found at the root of MCEdit schematics
+            case "AddBlocks", "Materials", "Data", "WEOffsetX", "WEOffsetY", "WEOffsetZ" -> new MCEditSchematic();
+            case "Palette", "PaletteMax", "BlockData", "BlockEntities", "Metadata", "Version", "DataVersion", "Offset", "Schematic" -> new SpongeSchematic();
+            default -> null;
+        };
+    }
+
+}
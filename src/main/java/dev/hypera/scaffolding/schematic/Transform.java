@@ -0,0 +1,288 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import net.minestom.server.instance.block.Block;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One of the eight rotations and mirrors of a schematic around the y axis.
+ * <br><br>
+ * A transform mirrors the x axis first (if it mirrors at all), then rotates clockwise as seen from above by a
+ * number of quarter turns. Block states are transformed through a table covering every state id, which is built
+ * the first time a transform is used and shared afterwards.
+ */
+public final class Transform {
+
+    private static final Transform[] TRANSFORMS = new Transform[8];
+    private static final String[] DIRECTIONS = { "north", "east", "south", "west" };
+
+    static {
+        for (int i = 0; i < TRANSFORMS.length; i++) TRANSFORMS[i] = new Transform(i >= 4, i & 3);
+    }
+
+    /**
+     * The transform that keeps everything as is.
+     */
+    public static final @NotNull Transform IDENTITY = TRANSFORMS[0];
+
+    private final boolean mirror;
+    private final int quarterTurns;
+    private volatile Block[] states;
+
+    private Transform(boolean mirror, int quarterTurns) {
+        this.mirror = mirror;
+        this.quarterTurns = quarterTurns;
+    }
+
+    private static @NotNull Transform of(boolean mirror, int quarterTurns) {
+        return TRANSFORMS[(mirror ? 4 : 0) + (quarterTurns & 3)];
+    }
+
+    /**
+     * Gets the clockwise rotation by the given angle.
+     * @param degrees The angle, must be a multiple of 90.
+     * @return The transform.
+     */
+    public static @NotNull Transform rotation(int degrees) {
+        if (degrees % 90 != 0) throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees: " + degrees);
+        return of(false, Math.floorMod(degrees / 90, 4));
+    }
+
+    /**
+     * Gets the transform that mirrors the x axis, swapping east and west.
+     * @return The transform.
+     */
+    public static @NotNull Transform mirrorX() {
+        return of(true, 0);
+    }
+
+    /**
+     * Gets the transform that mirrors the z axis, swapping north and south.
+     * @return The transform.
+     */
+    public static @NotNull Transform mirrorZ() {
+        return of(true, 2);
+    }
+
+    /**
+     * Gets the transform that applies this transform first, then the given one.
+     * @param next The transform to apply afterwards.
+     * @return The combined transform.
+     */
+    public @NotNull Transform then(@NotNull Transform next) {
+        // Mirroring after a rotation is the same as mirroring before the opposite rotation
+        int turns = next.mirror ? next.quarterTurns - quarterTurns : next.quarterTurns + quarterTurns;
+        return of(mirror != next.mirror, turns);
+    }
+
+    /**
+     * Gets the transform that undoes this transform.
+     * @return The inverse transform.
+     */
+    public @NotNull Transform inverse() {
+        return mirror ? this : of(false, -quarterTurns);
+    }
+
+    public boolean isIdentity() {
+        return this == IDENTITY;
+    }
+
+    /**
+     * Checks whether this transform swaps the x and z axes.
+     * @return {@code true} for a rotation by 90 or 270 degrees.
+     */
+    public boolean swapsAxes() {
+        return (quarterTurns & 1) == 1;
+    }
+
+    /**
+     * Transforms the x coordinate of a position relative to the rotation origin.
+     * @param x The x coordinate.
+     * @param z The z coordinate.
+     * @return The transformed x coordinate.
+     */
+    public int transformX(int x, int z) {
+        if (mirror) x = -x;
+        return switch (quarterTurns) {
+            case 1 -> -z;
+            case 2 -> -x;
+            case 3 -> z;
+            default -> x;
+        };
+    }
+
+    /**
+     * Transforms the z coordinate of a position relative to the rotation origin.
+     * @param x The x coordinate.
+     * @param z The z coordinate.
+     * @return The transformed z coordinate.
+     */
+    public int transformZ(int x, int z) {
+        if (mirror) x = -x;
+        return switch (quarterTurns) {
+            case 1 -> x;
+            case 2 -> -z;
+            case 3 -> -x;
+            default -> z;
+        };
+    }
+
+    /**
+     * Transforms the state of a block, such as its {@code facing}, {@code axis} or {@code rotation}.
+     * The NBT and handler of the block are kept.
+     * @param block The block.
+     * @return The transformed block.
+     */
+    public @NotNull Block transform(@NotNull Block block) {
+        if (isIdentity()) return block;
+
+        Block[] states = this.states;
+        if (states == null) this.states = states = computeStates();
+
+        int stateId = block.stateId();
+        Block transformed = stateId < states.length ? states[stateId] : null;
+        if (transformed == null) return block;
+        if (block.hasNbt()) transformed = transformed.withNbt(block.nbt());
+        if (block.handler() != null) transformed = transformed.withHandler(block.handler());
+        return transformed;
+    }
+
+    private Block @NotNull [] computeStates() {
+        int size = 0;
+        for (Block block : Block.values()) {
+            for (Block state : block.possibleStates()) size = Math.max(size, state.stateId() + 1);
+        }
+
+        Block[] states = new Block[size];
+        for (Block block : Block.values()) {
+            for (Block state : block.possibleStates()) states[state.stateId()] = transformState(state);
+        }
+        return states;
+    }
+
+    private @NotNull Block transformState(@NotNull Block state) {
+        Map<String, String> properties = state.properties();
+        if (properties.isEmpty()) return state;
+
+        Map<String, String> transformed = new HashMap<>(properties);
+        boolean changed = false;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            String key = property.getKey();
+            String value = property.getValue();
+
+            int direction = direction(key);
+            if (direction != -1) {
+                // Connections such as those of fences, walls and redstone move to another side
+                transformed.put(DIRECTIONS[transformDirection(direction)], value);
+                changed = true;
+                continue;
+            }
+
+            String newValue = switch (key) {
+                case "facing" -> {
+                    int facing = direction(value);
+                    yield facing == -1 ? value : DIRECTIONS[transformDirection(facing)];
+                }
+                case "axis" -> swapsAxes() ? (value.equals("x") ? "z" : value.equals("z") ? "x" : value) : value;
+                case "rotation" -> transformRotation(value);
+                case "shape" -> transformShape(value);
+                case "hinge", "type" -> mirror ? (value.equals("left") ? "right" : value.equals("right") ? "left" : value) : value;
+                default -> value;
+            };
+            if (!newValue.equals(value)) {
+                transformed.put(key, newValue);
+                changed = true;
+            }
+        }
+        if (!changed) return state;
+
+        try {
+            return state.withProperties(transformed);
+        } catch (IllegalArgumentException e) {
+            // The transformed state doesn't exist, keep the original one
+            return state;
+        }
+    }
+
+    private static int direction(@NotNull String name) {
+        for (int i = 0; i < DIRECTIONS.length; i++) {
+            if (DIRECTIONS[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int transformDirection(int direction) {
+        // Directions are ordered clockwise, mirroring the x axis swaps east and west
+        if (mirror && (direction & 1) == 1) direction = (direction + 2) & 3;
+        return (direction + quarterTurns) & 3;
+    }
+
+    private @NotNull String transformRotation(@NotNull String value) {
+        int rotation;
+        try {
+            rotation = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+
+        // Rotations count sixteenths of a turn clockwise, starting at south
+        if (mirror) rotation = 16 - rotation;
+        return Integer.toString((rotation + quarterTurns * 4) & 15);
+    }
+
+    private @NotNull String transformShape(@NotNull String value) {
+        // Stairs
+        if (value.endsWith("_left") || value.endsWith("_right")) {
+            if (!mirror) return value;
+            return value.endsWith("_left") ? value.replace("_left", "_right") : value.replace("_right", "_left");
+        }
+
+        // Rails, such as north_south, ascending_east and south_west
+        String[] parts = value.split("_");
+        if (parts.length != 2) return value;
+        if (parts[0].equals("ascending")) {
+            int direction = direction(parts[1]);
+            return direction == -1 ? value : "ascending_" + DIRECTIONS[transformDirection(direction)];
+        }
+
+        int first = direction(parts[0]);
+        int second = direction(parts[1]);
+        if (first == -1 || second == -1) return value;
+        first = transformDirection(first);
+        second = transformDirection(second);
+        if ((first & 1) == (second & 1)) return (first & 1) == 0 ? "north_south" : "east_west";
+
+        // Curves name their north or south side first
+        return (first & 1) == 0 ? DIRECTIONS[first] + "_" + DIRECTIONS[second] : DIRECTIONS[second] + "_" + DIRECTIONS[first];
+    }
+
+    @Override
+    public String toString() {
+        return "Transform{mirror=" + mirror + ", rotation=" + quarterTurns * 90 + "}";
+    }
+
+}
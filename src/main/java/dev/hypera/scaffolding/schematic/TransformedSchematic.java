@@ -0,0 +1,200 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic;
+
+import dev.hypera.scaffolding.instance.SchematicPlacer;
+import dev.hypera.scaffolding.region.Region;
+import net.minestom.server.coordinate.Point;
+import net.minestom.server.coordinate.Vec;
+import net.minestom.server.instance.Instance;
+import net.minestom.server.instance.block.Block;
+import net.minestom.server.world.biomes.Biome;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.NBTCompound;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rotated and/or mirrored view of another schematic.
+ * <br><br>
+ * The view doesn't copy any blocks. Positions and block states are transformed as the underlying schematic is
+ * iterated, rotating around the position the schematic is placed at. Views are read-only, schematics are read into
+ * the schematic they view instead.
+ */
+public final class TransformedSchematic implements Schematic {
+
+    private final @NotNull Schematic schematic;
+    private final @NotNull Transform transform;
+    private final int offsetX;
+    private final int offsetZ;
+
+    private TransformedSchematic(@NotNull Schematic schematic, @NotNull Transform transform) {
+        this.schematic = schematic;
+        this.transform = transform;
+
+        int minX = schematic.getOffsetX();
+        int minZ = schematic.getOffsetZ();
+        int maxX = minX + schematic.getWidth() - 1;
+        int maxZ = minZ + schematic.getLength() - 1;
+        this.offsetX = Math.min(transform.transformX(minX, minZ), transform.transformX(maxX, maxZ));
+        this.offsetZ = Math.min(transform.transformZ(minX, minZ), transform.transformZ(maxX, maxZ));
+    }
+
+    /**
+     * Creates a view of the given schematic with the given transform.
+     * Views of views are collapsed into a single view of the original schematic.
+     * @param schematic The schematic.
+     * @param transform The transform.
+     * @return The view, or the schematic itself if the transform does nothing.
+     */
+    public static @NotNull Schematic of(@NotNull Schematic schematic, @NotNull Transform transform) {
+        if (schematic instanceof TransformedSchematic view) {
+            schematic = view.schematic;
+            transform = view.transform.then(transform);
+        }
+        return transform.isIdentity() ? schematic : new TransformedSchematic(schematic, transform);
+    }
+
+    /**
+     * Gets the schematic this is a view of.
+     * @return The schematic.
+     */
+    public @NotNull Schematic getSchematic() {
+        return schematic;
+    }
+
+    /**
+     * Gets the transform of this view.
+     * @return The transform.
+     */
+    public @NotNull Transform getTransform() {
+        return transform;
+    }
+
+    /**
+     * Views can not be read into.
+     * @param inputStream Schematic input
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void read(@NotNull InputStream inputStream) {
+        throw new UnsupportedOperationException("Schematic views can not be read");
+    }
+
+    /**
+     * Views can not be read into.
+     * @param nbtTag Schematic NBT
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void read(@NotNull NBTCompound nbtTag) throws NBTException {
+        throw new UnsupportedOperationException("Schematic views can not be read");
+    }
+
+    @Override
+    public void write(@NotNull OutputStream outputStream, @NotNull Region region) throws IOException {
+        schematic.write(outputStream, region);
+    }
+
+    @Override
+    public CompletableFuture<Region> build(@NotNull Instance instance, @NotNull Point position, @NotNull PlacementOptions options) {
+        return SchematicPlacer.place(this, instance, position, options);
+    }
+
+    @Override
+    public short getWidth() {
+        return transform.swapsAxes() ? schematic.getLength() : schematic.getWidth();
+    }
+
+    @Override
+    public short getHeight() {
+        return schematic.getHeight();
+    }
+
+    @Override
+    public short getLength() {
+        return transform.swapsAxes() ? schematic.getWidth() : schematic.getLength();
+    }
+
+    @Override
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    @Override
+    public int getOffsetY() {
+        return schematic.getOffsetY();
+    }
+
+    @Override
+    public int getOffsetZ() {
+        return offsetZ;
+    }
+
+    @Override
+    public void apply(@NotNull Block.Setter setter, @NotNull PlacementOptions options) {
+        schematic.apply((x, y, z, block) ->
+                setter.setBlock(transform.transformX(x, z), y, transform.transformZ(x, z), transform.transform(block)), options);
+    }
+
+    @Override
+    public void apply(@NotNull Block.Setter setter, @NotNull Point position, @NotNull Point min, @NotNull Point max, @NotNull PlacementOptions options) {
+        int originX = position.blockX();
+        int originZ = position.blockZ();
+
+        // Map the bounds back onto the underlying schematic, placed at the same position
+        Transform inverse = transform.inverse();
+        int minX = min.blockX() - originX;
+        int minZ = min.blockZ() - originZ;
+        int maxX = max.blockX() - originX;
+        int maxZ = max.blockZ() - originZ;
+        int fromX = Math.min(inverse.transformX(minX, minZ), inverse.transformX(maxX, maxZ));
+        int fromZ = Math.min(inverse.transformZ(minX, minZ), inverse.transformZ(maxX, maxZ));
+        int toX = Math.max(inverse.transformX(minX, minZ), inverse.transformX(maxX, maxZ));
+        int toZ = Math.max(inverse.transformZ(minX, minZ), inverse.transformZ(maxX, maxZ));
+
+        schematic.apply((x, y, z, block) -> {
+            int relativeX = x - originX;
+            int relativeZ = z - originZ;
+            setter.setBlock(originX + transform.transformX(relativeX, relativeZ), y, originZ + transform.transformZ(relativeX, relativeZ),
+                    transform.transform(block));
+        }, position, new Vec(originX + fromX, min.blockY(), originZ + fromZ), new Vec(originX + toX, max.blockY(), originZ + toZ), options);
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return schematic.hasBiomes();
+    }
+
+    @Override
+    public @Nullable Biome getBiome(int x, int y, int z) {
+        Transform inverse = transform.inverse();
+        return schematic.getBiome(inverse.transformX(x, z), y, inverse.transformZ(x, z));
+    }
+
+}
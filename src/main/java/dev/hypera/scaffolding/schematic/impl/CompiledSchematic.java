@@ -0,0 +1,409 @@
+/*
+ * Scaffolding - Schematic library for Minestom
+ *  Copyright (c) 2022 SLLCoding <luisjk266@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the “Software”), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package dev.hypera.scaffolding.schematic.impl;
+
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.region.Region;
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.BlockEntities;
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.utils.NamespaceID;
+import net.minestom.server.world.biomes.Biome;
+import net.minestom.server.world.biomes.BiomeManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jglrxavpok.hephaistos.nbt.CompressedProcesser;
+import org.jglrxavpok.hephaistos.nbt.NBTCompound;
+import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.jglrxavpok.hephaistos.nbt.NBTWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scaffolding's own precompiled schematic format.
+ * <br><br>
+ * The file holds the sizes and offsets, the palette already resolved to state ids, and the packed array of a
+ * {@link BlockStorage}, aligned so that a memory-mapped file is used in place as the block storage. Loading one
+ * therefore costs no parsing or decoding at all.
+ * <br><br>
+ * State ids differ between Minecraft versions, so compiled schematics are only valid for the protocol version they
+ * were compiled with, and should be compiled again from their source schematic when the server is updated.
+ * <br><br>
+ * Layout, little-endian:
+ * <pre>
+ * 0   byte[4]  magic, "SCAF"
+ * 4   int      format version
+ * 8   int      protocol version
+ * 12  short[4] width, height, length, reserved
+ * 20  int[3]   offset x, y and z
+ * 32  int      palette size
+ * 36  int      bits per entry
+ * 40  int      amount of longs in the packed array
+ * 44  short[]  palette state ids, padded to a multiple of 8 bytes
+ * ... long[]   packed array
+ * ... int      amount of block entities
+ * ... entries  block index (int), length (int) and payload of the compound of every block entity
+ * ... int      biome palette size, 0 without biomes
+ * ... entries  length (short) and UTF-8 name of every biome, empty for biomes unknown to the server
+ * ... int[2]   bits per entry and amount of longs in the biome array
+ * ... long[]   packed biome palette indices, one per block
+ * </pre>
+ */
+public class CompiledSchematic extends AbstractSchematic {
+
+    private static final byte[] MAGIC = { 'S', 'C', 'A', 'F' };
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 44;
+    private static final int BUFFER_SIZE = 8192;
+
+    private Biome[] biomePalette;
+    private BlockStorage biomes;
+
+    /**
+     * Checks whether the given buffer starts with a compiled schematic.
+     * @param buffer The buffer, its position is not changed.
+     * @return {@code true} if the buffer holds a compiled schematic.
+     */
+    public static boolean isCompiled(@NotNull ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given bytes are the start of a compiled schematic.
+     * @param bytes The first bytes.
+     * @return {@code true} if the bytes start a compiled schematic.
+     */
+    public static boolean isCompiled(byte @NotNull [] bytes) {
+        return isCompiled(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads a compiled schematic from the given buffer.
+     * The buffer is used in place as the block storage, so it must not be modified afterwards.
+     * @param buffer Schematic input, such as a memory-mapped file
+     * @throws NBTException if the schematic is invalid
+     */
+    public void read(@NotNull ByteBuffer buffer) throws NBTException {
+        ByteBuffer input = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (!isCompiled(input) || input.remaining() < HEADER_SIZE) throw new NBTException("Invalid Schematic: Not a compiled schematic");
+
+        int formatVersion = input.getInt(4);
+        if (formatVersion != FORMAT_VERSION) throw new NBTException("Invalid Schematic: Unsupported compiled format version " + formatVersion);
+        int protocolVersion = input.getInt(8);
+        if (protocolVersion != MinecraftServer.PROTOCOL_VERSION) {
+            throw new NBTException("Invalid Schematic: Compiled for protocol version " + protocolVersion);
+        }
+
+        this.width = input.getShort(12);
+        this.height = input.getShort(14);
+        this.length = input.getShort(16);
+        this.offsetX = input.getInt(20);
+        this.offsetY = input.getInt(24);
+        this.offsetZ = input.getInt(28);
+
+        int paletteSize = input.getInt(32);
+        int bitsPerEntry = input.getInt(36);
+        int wordCount = input.getInt(40);
+        if (paletteSize <= 0) throw new NBTException("Invalid Schematic: Palette is empty");
+
+        int dataOffset = dataOffset(paletteSize);
+        long dataEnd = (long) dataOffset + 8L * wordCount;
+        if (wordCount < 0 || dataEnd > input.remaining()) {
+            throw new NBTException("Invalid Schematic: Invalid length");
+        }
+
+        short[] palette = new short[paletteSize];
+        input.position(HEADER_SIZE);
+        input.asShortBuffer().get(palette);
+
+        try {
+            this.blocks = BlockStorage.wrap(width, height, length, palette, bitsPerEntry, input.position(dataOffset).limit((int) dataEnd).asLongBuffer());
+            input.limit(input.capacity()).position((int) dataEnd);
+            readBlockEntities(input);
+            readBiomes(input);
+            if (input.hasRemaining()) throw new NBTException("Invalid Schematic: Invalid length");
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new NBTException("Invalid Schematic: " + (e.getMessage() != null ? e.getMessage() : "Invalid length"));
+        }
+        this.read = true;
+    }
+
+    private void readBlockEntities(@NotNull ByteBuffer input) throws NBTException {
+        int count = input.getInt();
+        if (count < 0 || count > input.remaining() / 8) throw new NBTException("Invalid Schematic: Invalid block entity count");
+        if (count == 0) return;
+
+        // Payloads are decoded when their block is placed, straight from the buffer
+        BlockEntities blockEntities = new BlockEntities(null);
+        for (int i = 0; i < count; i++) {
+            int index = input.getInt();
+            int length = input.getInt();
+            if (index < 0 || index >= blocks.size()) throw new NBTException("Invalid Schematic: Block entity outside of schematic");
+            if (length < 0 || length > input.remaining()) throw new NBTException("Invalid Schematic: Invalid length");
+            blockEntities.put(index, input.slice().limit(length));
+            input.position(input.position() + length);
+        }
+        blockEntities.index(blocks);
+        this.blockEntities = blockEntities;
+    }
+
+    private void readBiomes(@NotNull ByteBuffer input) throws NBTException {
+        int paletteSize = input.getInt();
+        if (paletteSize < 0 || paletteSize > input.remaining() / 2) throw new NBTException("Invalid Schematic: Invalid biome palette size");
+        if (paletteSize == 0) return;
+
+        // Biomes unknown to the server are left as they are
+        BiomeManager biomeManager = MinecraftServer.getBiomeManager();
+        Biome[] biomePalette = new Biome[paletteSize];
+        short[] palette = new short[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            byte[] name = new byte[input.getShort() & 0xFFFF];
+            input.get(name);
+            if (name.length > 0) biomePalette[i] = biomeManager.getByName(NamespaceID.from(new String(name, StandardCharsets.UTF_8)));
+            palette[i] = (short) i;
+        }
+
+        int bitsPerEntry = input.getInt();
+        int wordCount = input.getInt();
+        if (wordCount < 0 || wordCount > input.remaining() / 8) throw new NBTException("Invalid Schematic: Invalid length");
+        this.biomes = BlockStorage.wrap(width, height, length, palette, bitsPerEntry, input.slice().limit(8 * wordCount).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+        input.position(input.position() + 8 * wordCount);
+        this.biomePalette = biomePalette;
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return biomePalette != null;
+    }
+
+    @Override
+    public @Nullable Biome getBiome(int x, int y, int z) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        if (biomePalette == null) return null;
+
+        x -= offsetX;
+        y -= offsetY;
+        z -= offsetZ;
+        if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= length) return null;
+        return biomePalette[biomes.get(biomes.index(x, y, z))];
+    }
+
+    /**
+     * Reads a compiled schematic from the given input stream.
+     * Prefer {@link dev.hypera.scaffolding.Scaffolding#fromPath(java.nio.file.Path)}, which maps the file instead.
+     * @param inputStream Schematic input, closed once read
+     * @throws IOException if the input stream is invalid
+     * @throws NBTException if the schematic is invalid
+     */
+    @Override
+    public void read(@NotNull InputStream inputStream) throws IOException, NBTException {
+        try (inputStream) {
+            read(ByteBuffer.wrap(inputStream.readAllBytes()));
+        }
+    }
+
+    @Override
+    public void read(@NotNull NBTCompound nbtTag) throws NBTException {
+        throw new NBTException("Invalid Schematic: Compiled schematics are not NBT");
+    }
+
+    @Override
+    protected boolean readTag(@NotNull NBTInputStream input, @NotNull String name, byte type) throws NBTException {
+        throw new NBTException("Invalid Schematic: Compiled schematics are not NBT");
+    }
+
+    @Override
+    protected void readComplete() throws NBTException {
+        throw new NBTException("Invalid Schematic: Compiled schematics are not NBT");
+    }
+
+    /**
+     * Writes the given region as a compiled schematic.
+     * <br><br>
+     * The loaded chunks of the region are captured in parallel, chunks that are not loaded are written as air.
+     * This blocks until the region is written, so it should not be called from the tick thread.
+     * @param outputStream Schematic output, closed once written
+     * @param region The region to write
+     * @throws IOException if the output stream could not be written
+     * @throws IllegalArgumentException if the region is too large for a schematic
+     */
+    @Override
+    public void write(@NotNull OutputStream outputStream, @NotNull Region region) throws IOException {
+        int minX = Math.min(region.lower().blockX(), region.upper().blockX());
+        int minY = Math.min(region.lower().blockY(), region.upper().blockY());
+        int minZ = Math.min(region.lower().blockZ(), region.upper().blockZ());
+        int width = Math.max(region.lower().blockX(), region.upper().blockX()) - minX + 1;
+        int height = Math.max(region.lower().blockY(), region.upper().blockY()) - minY + 1;
+        int length = Math.max(region.lower().blockZ(), region.upper().blockZ()) - minZ + 1;
+        if (width > Short.MAX_VALUE || height > Short.MAX_VALUE || length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Region is too large for a schematic");
+        }
+
+        short[] states = SpongeSchematic.capture(region.instance(), minX, minY, minZ, width, height, length);
+
+        BlockStorage storage = new BlockStorage(width, height, length, 16);
+        int[] paletteIndices = new int[Short.MAX_VALUE + 1];
+        Arrays.fill(paletteIndices, -1);
+        for (int i = 0; i < states.length; i++) {
+            int paletteIndex = paletteIndices[states[i]];
+            if (paletteIndex == -1) paletteIndex = paletteIndices[states[i]] = storage.addPaletteEntry(states[i]);
+            storage.set(i, paletteIndex);
+        }
+        if (storage.getPaletteSize() == 0) storage.addPaletteEntry((short) 0);
+
+        try (outputStream) {
+            write(outputStream, storage, 0, 0, 0);
+            // Regions are captured without block entities and biomes
+            outputStream.write(new byte[8]);
+        }
+    }
+
+    /**
+     * Compiles the given schematic, including its block entities and biomes.
+     * @param schematic The schematic to compile.
+     * @param outputStream Compiled schematic output, closed once written
+     * @throws IOException if the output stream could not be written
+     */
+    public static void compile(@NotNull AbstractSchematic schematic, @NotNull OutputStream outputStream) throws IOException {
+        BlockStorage blocks = schematic.getBlocks();
+        try (outputStream) {
+            write(outputStream, blocks, schematic.getOffsetX(), schematic.getOffsetY(), schematic.getOffsetZ());
+            writeBlockEntities(outputStream, schematic.getBlockEntities());
+            writeBiomes(outputStream, schematic, blocks);
+        }
+    }
+
+    private static void writeBlockEntities(@NotNull OutputStream outputStream, @Nullable BlockEntities blockEntities) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        ByteArrayOutputStream compound = new ByteArrayOutputStream();
+        ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        int count = 0;
+        for (int index : blockEntities == null ? new int[0] : blockEntities.indices()) {
+            // Entries without data are placed as plain blocks, so they are left out
+            NBTCompound data = blockEntities.get(index);
+            if (data == null) continue;
+
+            compound.reset();
+            try (NBTWriter writer = new NBTWriter(compound, CompressedProcesser.NONE)) {
+                writer.writeNamed("", data);
+            }
+            // Only the payload is kept, the type and empty name of the root compound are the same for every entry
+            byte[] bytes = compound.toByteArray();
+            entries.write(entry.putInt(0, index).putInt(4, bytes.length - 3).array());
+            entries.write(bytes, 3, bytes.length - 3);
+            count++;
+        }
+
+        outputStream.write(entry.putInt(0, count).array(), 0, 4);
+        entries.writeTo(outputStream);
+    }
+
+    private static void writeBiomes(@NotNull OutputStream outputStream, @NotNull AbstractSchematic schematic, @NotNull BlockStorage blocks) throws IOException {
+        if (!schematic.hasBiomes()) {
+            outputStream.write(new byte[4]);
+            return;
+        }
+
+        Map<String, Integer> paletteIndices = new LinkedHashMap<>();
+        BlockStorage biomes = new BlockStorage(blocks.getWidth(), blocks.getHeight(), blocks.getLength(), 16);
+        for (int i = 0; i < blocks.size(); i++) {
+            Biome biome = schematic.getBiome(blocks.getX(i) + schematic.getOffsetX(), blocks.getY(i) + schematic.getOffsetY(),
+                    blocks.getZ(i) + schematic.getOffsetZ());
+            String name = biome == null ? "" : biome.name().asString();
+            Integer paletteIndex = paletteIndices.get(name);
+            if (paletteIndex == null) {
+                paletteIndex = biomes.addPaletteEntry((short) paletteIndices.size());
+                paletteIndices.put(name, paletteIndex);
+            }
+            biomes.set(i, paletteIndex);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        header.write(buffer.putInt(0, paletteIndices.size()).array());
+        for (String name : paletteIndices.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            header.write(buffer.putShort(0, (short) bytes.length).array(), 0, 2);
+            header.write(bytes);
+        }
+        outputStream.write(header.toByteArray());
+        outputStream.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(biomes.getBitsPerEntry()).putInt(biomes.getWordCount()).array());
+        writeWords(outputStream, biomes);
+    }
+
+    private static void write(@NotNull OutputStream outputStream, @NotNull BlockStorage storage, int offsetX, int offsetY, int offsetZ) throws IOException {
+        int paletteSize = storage.getPaletteSize();
+        int wordCount = storage.getWordCount();
+
+        ByteBuffer header = ByteBuffer.allocate(dataOffset(paletteSize)).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(MinecraftServer.PROTOCOL_VERSION);
+        header.putShort((short) storage.getWidth());
+        header.putShort((short) storage.getHeight());
+        header.putShort((short) storage.getLength());
+        header.putShort((short) 0);
+        header.putInt(offsetX);
+        header.putInt(offsetY);
+        header.putInt(offsetZ);
+        header.putInt(paletteSize);
+        header.putInt(storage.getBitsPerEntry());
+        header.putInt(wordCount);
+        for (int i = 0; i < paletteSize; i++) header.putShort(storage.getPaletteEntry(i));
+        outputStream.write(header.array());
+        writeWords(outputStream, storage);
+    }
+
+    private static void writeWords(@NotNull OutputStream outputStream, @NotNull BlockStorage storage) throws IOException {
+        int wordCount = storage.getWordCount();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int word = 0; word < wordCount; word++) {
+            if (!buffer.hasRemaining()) {
+                outputStream.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putLong(storage.getWord(word));
+        }
+        outputStream.write(buffer.array(), 0, buffer.position());
+    }
+
+    private static int dataOffset(int paletteSize) {
+        return (HEADER_SIZE + 2 * paletteSize + 7) & ~7;
+    }
+
+}
@@ -22,39 +22,30 @@
  */
 package dev.hypera.scaffolding.schematic.impl;
 
-import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.BlockStorage;
+import dev.hypera.scaffolding.schematic.LegacyBlocks;
 import dev.hypera.scaffolding.region.Region;
-import net.minestom.server.coordinate.Point;
-import net.minestom.server.coordinate.Pos;
-import net.minestom.server.instance.Instance;
-import net.minestom.server.instance.batch.AbsoluteBlockBatch;
-import net.minestom.server.instance.block.Block;
 import org.jetbrains.annotations.NotNull;
 import org.jglrxavpok.hephaistos.collections.ImmutableByteArray;
 import org.jglrxavpok.hephaistos.nbt.NBTCompound;
 import org.jglrxavpok.hephaistos.nbt.NBTException;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
 
 // https://github.com/EngineHub/WorldEdit/blob/version/5.x/src/main/java/com/sk89q/worldedit/schematic/MCEditSchematicFormat.java
-public class MCEditSchematic implements Schematic {
+public class MCEditSchematic extends AbstractSchematic {
 
-    private final List<Region.Block> regionBlocks = new ArrayList<>();
-
-    private short width;
-    private short height;
-    private short length;
-    private short[] blocks;
-
-    private boolean read = false;
-
-    private int offsetX;
-    private int offsetY;
-    private int offsetZ;
+    // Streaming read state
+    private String materials;
+    private byte[] blockId;
+    private byte[] addId;
+    private byte[] blockData;
+    private int offsetsRead;
 
     @Override
     public void read(@NotNull NBTCompound nbtTag) throws NBTException {
@@ -63,11 +54,73 @@ public class MCEditSchematic implements Schematic {
         readSizes(nbtTag);
         readBlocksData(nbtTag);
         readOffsets(nbtTag);
-        readBlocks();
 
         read = true;
     }
 
+    @Override
+    protected boolean readTag(@NotNull NBTInputStream input, @NotNull String name, byte type) throws IOException, NBTException {
+        switch (name) {
+            case "Materials" -> {
+                if (type != NBTInputStream.TAG_STRING) return false;
+                this.materials = input.readUTF();
+            }
+            case "Blocks" -> {
+                if (type != NBTInputStream.TAG_BYTE_ARRAY) return false;
+                this.blockId = input.readByteArray();
+            }
+            case "AddBlocks" -> {
+                if (type != NBTInputStream.TAG_BYTE_ARRAY) return false;
+                this.addId = input.readByteArray();
+            }
+            case "Data" -> {
+                if (type != NBTInputStream.TAG_BYTE_ARRAY) return false;
+                this.blockData = input.readByteArray();
+            }
+            case "WEOffsetX", "WEOffsetY", "WEOffsetZ" -> {
+                if (type != NBTInputStream.TAG_INT) return false;
+                int value = input.readInt();
+                switch (name) {
+                    case "WEOffsetX" -> {
+                        this.offsetX = value;
+                        this.offsetsRead |= 1;
+                    }
+                    case "WEOffsetY" -> {
+                        this.offsetY = value;
+                        this.offsetsRead |= 2;
+                    }
+                    default -> {
+                        this.offsetZ = value;
+                        this.offsetsRead |= 4;
+                    }
+                }
+            }
+            default -> {
+                return super.readTag(input, name, type);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void readComplete() throws NBTException {
+        if (blockId == null) throw new NBTException("Invalid Schematic: No Blocks");
+        checkSizes();
+        if (materials == null || !materials.equals("Alpha")) throw new NBTException("Invalid Schematic: Invalid Materials");
+        if (blockData == null) throw new NBTException("Invalid Schematic: No Block Data");
+        if ((offsetsRead & 1) == 0) throw new NBTException("Invalid Schematic: No WEOffsetX");
+        if ((offsetsRead & 2) == 0) throw new NBTException("Invalid Schematic: No WEOffsetY");
+        if ((offsetsRead & 4) == 0) throw new NBTException("Invalid Schematic: No WEOffsetZ");
+
+        if (recorder != null) recorder.startPhase();
+        readBlocks(blockId, addId != null ? addId : new byte[0], blockData);
+        if (recorder != null) recorder.endDecode();
+
+        this.blockId = null;
+        this.addId = null;
+        this.blockData = null;
+    }
+
     private void readOffsets(@NotNull NBTCompound nbtTag) throws NBTException {
         Integer weOffsetX = nbtTag.getInt("WEOffsetX");
         if (weOffsetX == null) throw new NBTException("Invalid Schematic: No WEOffsetX");
@@ -107,102 +160,50 @@ public class MCEditSchematic implements Schematic {
 
         ImmutableByteArray blocksData = nbtTag.getByteArray("Data");
         if (blocksData == null) throw new NBTException("Invalid Schematic: No Block Data");
-        blocksData.copyArray();
+        byte[] blockData = blocksData.copyArray();
 
         byte[] addId;
         if (nbtTag.containsKey("AddBlocks")) addId = Objects.requireNonNull(nbtTag.getByteArray("AddBlocks")).copyArray();
         else addId = new byte[0];
 
-        blocks = new short[blockId.length];
-        for (int index = 0; index < blockId.length; index++) {
-            if ((index >> 1) >= addId.length) this.blocks[index] = (short) (blockId[index] & 0xFF);
-            else {
-                if ((index & 1) == 0) this.blocks[index] = (short) (((addId[index >> 1] & 0x0F) << 8) + (blockId[index] & 0xFF));
-                else this.blocks[index] = (short) (((addId[index >> 1] & 0xF0) << 4) + (blockId[index] & 0xFF));
-            }
-        }
+        readBlocks(blockId, addId, blockData);
     }
 
-    public void readBlocks() {
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    short stateId = this.blocks[index];
-                    regionBlocks.add(new Region.Block(new Pos(x+offsetX, y+offsetY, z+offsetZ), stateId));
-                }
-            }
-        }
-    }
+    private void readBlocks(byte @NotNull [] blockId, byte @NotNull [] addId, byte @NotNull [] blockData) throws NBTException {
+        if (blockId.length != width * height * length) throw new NBTException("Invalid Schematic: Blocks does not match the schematic size");
+        if (blockData.length != blockId.length) throw new NBTException("Invalid Schematic: Data does not match the schematic size");
 
-    @Override
-    public void write(@NotNull OutputStream outputStream, @NotNull Region region) {
-        // TODO: Complete
-    }
+        // Legacy ids and data values are at most 16 bits together, so a flat lookup table is enough to build the
+        // palette, converting every distinct block once
+        int[] paletteIndices = new int[1 << 16];
+        Arrays.fill(paletteIndices, -1);
 
-    @Override
-    public CompletableFuture<Region> build(Instance instance, Point position) {
-        if (!read) throw new IllegalStateException("Schematic not read");
-        CompletableFuture<Region> future = new CompletableFuture<>();
-        CompletableFuture.runAsync(() -> {
-            AbsoluteBlockBatch blockBatch = new AbsoluteBlockBatch();
-
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            for (Region.Block regionBlock : regionBlocks) {
-                Pos absoluteBlockPosition = regionBlock.position().add(position);
-                short stateId = regionBlock.stateId();
-
-                Block block = Block.fromStateId(stateId);
-                if (block != null) futures.add(instance.loadOptionalChunk(absoluteBlockPosition).thenRun(() -> blockBatch.setBlock(absoluteBlockPosition, block)));
+        this.blocks = new BlockStorage(width, height, length, 16);
+        for (int index = 0; index < blockId.length; index++) {
+            int legacyId;
+            if ((index >> 1) >= addId.length) legacyId = blockId[index] & 0xFF;
+            else {
+                if ((index & 1) == 0) legacyId = ((addId[index >> 1] & 0x0F) << 8) + (blockId[index] & 0xFF);
+                else legacyId = ((addId[index >> 1] & 0xF0) << 4) + (blockId[index] & 0xFF);
             }
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).join();
-            blockBatch.apply(instance, () -> future.complete(new Region(instance, position, position.add(width, height, length))));
-        });
-        return future;
-    }
-
-    @Override
-    public short getWidth() {
-        return width;
-    }
-
-    @Override
-    public short getHeight() {
-        return height;
-    }
-
-    @Override
-    public short getLength() {
-        return length;
-    }
-
-    @Override
-    public int getOffsetX() {
-        return offsetX;
-    }
-
-    @Override
-    public int getOffsetY() {
-        return offsetY;
-    }
-
-    @Override
-    public int getOffsetZ() {
-        return offsetZ;
+            int data = blockData[index] & 0x0F;
+            int key = legacyId << 4 | data;
+            int paletteIndex = paletteIndices[key];
+            if (paletteIndex == -1) paletteIndex = paletteIndices[key] = blocks.addPaletteEntry(LegacyBlocks.getStateId(legacyId, data));
+            blocks.set(index, paletteIndex);
+        }
     }
 
+    /**
+     * MCEdit schematics can not be written, write a {@link SpongeSchematic} instead.
+     * @param outputStream Schematic output
+     * @param region Region to write
+     * @throws UnsupportedOperationException always
+     */
     @Override
-    public void apply(Block.@NotNull Setter setter) {
-        for (Region.Block block : regionBlocks) {
-            Pos pos = block.position();
-            Block minestomBlock = Block.fromStateId(block.stateId());
-            if (minestomBlock != null)  {
-                setter.setBlock(pos, minestomBlock);
-            } else {
-                throw new IllegalStateException("Invalid block state id: " + block.stateId());
-            }
-        }
+    public void write(@NotNull OutputStream outputStream, @NotNull Region region) {
+        throw new UnsupportedOperationException("MCEdit export is not supported");
     }
 
 }
@@ -22,49 +22,278 @@
  */
 package dev.hypera.scaffolding.schematic.impl;
 
-import dev.hypera.scaffolding.schematic.Schematic;
+import dev.hypera.scaffolding.nbt.NBTInputStream;
+import dev.hypera.scaffolding.nbt.NBTOutputStream;
+import dev.hypera.scaffolding.schematic.AbstractSchematic;
+import dev.hypera.scaffolding.schematic.BlockDataDecoder;
+import dev.hypera.scaffolding.schematic.BlockEntities;
+import dev.hypera.scaffolding.schematic.BlockStateCache;
+import dev.hypera.scaffolding.schematic.BlockStorage;
 import dev.hypera.scaffolding.region.Region;
-import net.minestom.server.coordinate.Point;
-import net.minestom.server.coordinate.Pos;
+import net.minestom.server.MinecraftServer;
+import net.minestom.server.instance.Chunk;
 import net.minestom.server.instance.Instance;
-import net.minestom.server.instance.batch.AbsoluteBlockBatch;
 import net.minestom.server.instance.block.Block;
+import net.minestom.server.utils.NamespaceID;
+import net.minestom.server.world.biomes.Biome;
+import net.minestom.server.world.biomes.BiomeManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jglrxavpok.hephaistos.collections.ImmutableByteArray;
+import org.jglrxavpok.hephaistos.collections.ImmutableIntArray;
 import org.jglrxavpok.hephaistos.nbt.NBTCompound;
 import org.jglrxavpok.hephaistos.nbt.NBTException;
+import org.jglrxavpok.hephaistos.nbt.NBTList;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 // https://github.com/EngineHub/WorldEdit/blob/303f5a76b2df70d63480f2126c9ef4b228eb3c59/worldedit-core/src/main/java/com/sk89q/worldedit/extent/clipboard/io/SpongeSchematicReader.java#L261-L297
-public class SpongeSchematic implements Schematic {
+public class SpongeSchematic extends AbstractSchematic {
 
-    private final List<Region.Block> regionBlocks = new ArrayList<>();
+    private static final int BUFFER_SIZE = 8192;
 
-    private short width;
-    private short height;
-    private short length;
-    private Map<String, Integer> palette = new HashMap<>();
     private byte[] blocksData;
-
-    private boolean read = false;
-
-    private int offsetX;
-    private int offsetY;
-    private int offsetZ;
+    private ByteBuffer blocksBuffer;
+    private int version = 1;
+
+    // Block entities and biomes, decoded lazily
+    private List<ByteBuffer> blockEntityPayloads;
+    private Biome[] biomePalette;
+    private ByteBuffer biomeData;
+    private boolean biomes3d;
+    private volatile BlockStorage biomes;
+
+    // Streaming read state
+    private int paletteMax = -1;
+    private Map<String, Integer> paletteEntries;
+    private Map<String, Integer> biomePaletteEntries;
+    private BlockDataDecoder decoder;
+    private boolean metadataRead;
+    private int offsetsRead;
+    private int[] offset;
 
     @Override
     public void read(@NotNull NBTCompound nbtTag) throws NBTException {
+        // Version 3 wraps everything in a Schematic compound
+        NBTCompound schematicTag = nbtTag.getCompound("Schematic");
+        if (schematicTag != null) nbtTag = schematicTag;
+        Integer version = nbtTag.getInt("Version");
+        if (version != null) this.version = version;
+
+        NBTCompound blocksTag = this.version >= 3 ? nbtTag.getCompound("Blocks") : nbtTag;
+        if (blocksTag == null) throw new NBTException("Invalid Schematic: No Blocks");
+
         readSizes(nbtTag);
-        readBlockPalette(nbtTag);
+        readBlockPalette(blocksTag);
         readOffsets(nbtTag);
         readBlocks();
+        readBlockEntities(blocksTag);
+        readBiomes(nbtTag);
         read = true;
     }
 
+    @Override
+    protected boolean readTag(@NotNull NBTInputStream input, @NotNull String name, byte type) throws IOException, NBTException {
+        switch (name) {
+            case "Version" -> {
+                if (type != NBTInputStream.TAG_INT) return false;
+                this.version = input.readInt();
+            }
+            case "Offset" -> {
+                if (type != NBTInputStream.TAG_INT_ARRAY) return false;
+                this.offset = input.readIntArray();
+            }
+            case "Schematic", "Blocks", "Biomes" -> {
+                if (type != NBTInputStream.TAG_COMPOUND) return false;
+                readCompound(input, name.equals("Schematic") ? null : name);
+            }
+            case "PaletteMax" -> {
+                if (type != NBTInputStream.TAG_INT) return false;
+                this.paletteMax = input.readInt();
+            }
+            case "Palette", "Blocks.Palette" -> {
+                if (type != NBTInputStream.TAG_COMPOUND) return false;
+                this.paletteEntries = readPalette(input);
+            }
+            case "BiomePalette", "Biomes.Palette" -> {
+                if (type != NBTInputStream.TAG_COMPOUND) return false;
+                this.biomePaletteEntries = readPalette(input);
+            }
+            case "BlockData", "Blocks.Data" -> {
+                if (type != NBTInputStream.TAG_BYTE_ARRAY) return false;
+                int length = input.readArrayLength();
+                if (length == 0) return true;
+
+                // The block data can only be decoded as it arrives once the sizes are known. Uncompressed input is
+                // decoded straight from its buffer
+                ByteBuffer buffer = input.readBuffer(length);
+                if (hasSizes() && buffer == null) {
+                    createStorage();
+                    if (recorder != null) recorder.startPhase();
+                    decoder.decode(input, length);
+                    if (recorder != null) recorder.endDecode();
+                } else if (buffer != null) {
+                    // Decoded in parallel once the palette size is known
+                    this.blocksBuffer = buffer;
+                } else {
+                    this.blocksData = new byte[length];
+                    input.readFully(this.blocksData);
+                }
+            }
+            case "BiomeData", "Biomes.Data" -> {
+                if (type != NBTInputStream.TAG_BYTE_ARRAY) return false;
+                int length = input.readArrayLength();
+                ByteBuffer buffer = input.readBuffer(length);
+                if (buffer == null) {
+                    byte[] bytes = new byte[length];
+                    input.readFully(bytes);
+                    buffer = ByteBuffer.wrap(bytes);
+                }
+
+                // Version 2 stores a biome per column, version 3 a biome per block
+                this.biomeData = buffer;
+                this.biomes3d = name.equals("Biomes.Data");
+            }
+            case "BlockEntities", "TileEntities", "Blocks.BlockEntities" -> {
+                if (type != NBTInputStream.TAG_LIST) return false;
+                byte elementType = input.readByte();
+                int length = input.readArrayLength();
+                if (length == 0) return true;
+                if (elementType != NBTInputStream.TAG_COMPOUND) throw new NBTException("Invalid Schematic: BlockEntities contains invalid value");
+
+                // Kept undecoded until their block is placed
+                if (this.blockEntityPayloads == null) this.blockEntityPayloads = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) blockEntityPayloads.add(input.readPayload(NBTInputStream.TAG_COMPOUND));
+            }
+            case "Metadata" -> {
+                if (type != NBTInputStream.TAG_COMPOUND) return false;
+                this.metadataRead = true;
+
+                byte entryType;
+                while ((entryType = input.readTagType()) != NBTInputStream.TAG_END) {
+                    String key = input.readTagName();
+                    if (entryType == NBTInputStream.TAG_INT) readOffset(key, input.readInt());
+                    else input.skipPayload(entryType);
+                }
+            }
+            default -> {
+                return super.readTag(input, name, type);
+            }
+        }
+        return true;
+    }
+
+    private void readCompound(@NotNull NBTInputStream input, @Nullable String container) throws IOException, NBTException {
+        byte type;
+        while ((type = input.readTagType()) != NBTInputStream.TAG_END) {
+            String name = input.readTagName();
+            if (!readTag(input, container == null ? name : container + "." + name, type)) input.skipPayload(type);
+        }
+    }
+
+    private static @NotNull Map<String, Integer> readPalette(@NotNull NBTInputStream input) throws IOException, NBTException {
+        Map<String, Integer> entries = new HashMap<>();
+        byte entryType;
+        while ((entryType = input.readTagType()) != NBTInputStream.TAG_END) {
+            String key = input.readTagName();
+            if (entryType != NBTInputStream.TAG_INT) throw new NBTException("Invalid Schematic: Palette contains invalid value");
+            entries.put(key, input.readInt());
+        }
+        return entries;
+    }
+
+    private boolean readOffset(@NotNull String name, int value) {
+        switch (name) {
+            case "WEOffsetX" -> {
+                this.offsetX = value;
+                this.offsetsRead |= 1;
+            }
+            case "WEOffsetY" -> {
+                this.offsetY = value;
+                this.offsetsRead |= 2;
+            }
+            case "WEOffsetZ" -> {
+                this.offsetZ = value;
+                this.offsetsRead |= 4;
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void createStorage() {
+        if (this.blocks != null) return;
+        int paletteCapacity = paletteMax > 0 ? paletteMax : paletteEntries != null ? paletteEntries.size() : 1;
+        this.blocks = new BlockStorage(width, height, length, paletteCapacity);
+        // PaletteMax is checked against the palette once it is read, so it can already bound the streamed block data
+        this.decoder = paletteMax > 0 ? new BlockDataDecoder(blocks, paletteMax) : new BlockDataDecoder(blocks);
+    }
+
+    @Override
+    protected void readComplete() throws NBTException {
+        checkSizes();
+        if (paletteMax == -1 && version < 3) throw new NBTException("Invalid Schematic: No PaletteMax");
+        if (paletteEntries == null) throw new NBTException("Invalid Schematic: No Palette");
+        if (paletteMax != -1 && paletteEntries.size() != paletteMax) throw new NBTException("Invalid Schematic: PaletteMax does not match Palette size");
+        if (decoder == null && blocksData == null && blocksBuffer == null) throw new NBTException("Invalid Schematic: No BlockData");
+        if (version >= 3) {
+            // The offset of version 3 is relative to the origin, like the WorldEdit offset of earlier versions
+            if (offset != null) readOffsets(offset);
+        } else {
+            if (!metadataRead) throw new NBTException("Invalid Schematic: No Metadata");
+            if ((offsetsRead & 1) == 0) throw new NBTException("Invalid Schematic: No WEOffsetX In Metadata");
+            if ((offsetsRead & 2) == 0) throw new NBTException("Invalid Schematic: No WEOffsetY In Metadata");
+            if ((offsetsRead & 4) == 0) throw new NBTException("Invalid Schematic: No WEOffsetZ In Metadata");
+        }
+
+        createStorage();
+        if (recorder != null) recorder.startPhase();
+        for (Map.Entry<String, Integer> entry : paletteEntries.entrySet()) {
+            if (entry.getValue() < 0) throw new NBTException("Invalid Schematic: Palette contains invalid value");
+            blocks.setPaletteEntry(entry.getValue(), BlockStateCache.getStateId(entry.getKey()));
+        }
+        if (recorder != null) recorder.endPalette();
+
+        if (recorder != null) recorder.startPhase();
+        if (blocksData != null) decoder.decodeParallel(ByteBuffer.wrap(blocksData), blocks.getPaletteSize());
+        if (blocksBuffer != null) decoder.decodeParallel(blocksBuffer, blocks.getPaletteSize());
+        decoder.finish(blocks.getPaletteSize());
+        if (recorder != null) recorder.endDecode();
+
+        if (blockEntityPayloads != null) {
+            BlockEntities blockEntities = createBlockEntities();
+            for (ByteBuffer payload : blockEntityPayloads) blockEntities.put(readPosition(payload), payload);
+            blockEntities.index(blocks);
+            this.blockEntities = blockEntities;
+        }
+        if (biomeData != null) {
+            if (biomePaletteEntries == null) throw new NBTException("Invalid Schematic: No BiomePalette");
+            readBiomePalette(biomePaletteEntries);
+        }
+
+        this.blocksData = null;
+        this.blocksBuffer = null;
+        this.paletteEntries = null;
+        this.biomePaletteEntries = null;
+        this.blockEntityPayloads = null;
+        this.decoder = null;
+    }
+
     private void readOffsets(@NotNull NBTCompound nbtTag) throws NBTException {
+        if (version >= 3) {
+            ImmutableIntArray offset = nbtTag.getIntArray("Offset");
+            if (offset != null) readOffsets(offset.copyArray());
+            return;
+        }
+
         NBTCompound metaData = nbtTag.getCompound("Metadata");
         if (metaData == null) throw new NBTException("Invalid Schematic: No Metadata");
 
@@ -81,6 +310,13 @@ public class SpongeSchematic implements Schematic {
         this.offsetZ = weOffsetZ;
     }
 
+    private void readOffsets(int @NotNull [] offset) throws NBTException {
+        if (offset.length != 3) throw new NBTException("Invalid Schematic: Offset has invalid length");
+        this.offsetX = offset[0];
+        this.offsetY = offset[1];
+        this.offsetZ = offset[2];
+    }
+
     private void readSizes(@NotNull NBTCompound nbtTag) throws NBTException {
         Short width = nbtTag.getShort("Width");
         if (width == null) throw new NBTException("Invalid Schematic: No Width");
@@ -96,160 +332,303 @@ public class SpongeSchematic implements Schematic {
     }
 
     private void readBlockPalette(@NotNull NBTCompound nbtTag) throws NBTException {
-        Integer maxPalette = nbtTag.getInt("PaletteMax");
-        if (maxPalette == null) throw new NBTException("Invalid Schematic: No PaletteMax");
-
-        NBTCompound nbtPalette = (NBTCompound) nbtTag.get("Palette");
+        NBTCompound nbtPalette = nbtTag.getCompound("Palette");
         if (nbtPalette == null) throw new NBTException("Invalid Schematic: No Palette");
-
         Set<String> keys = nbtPalette.getKeys();
-        if (keys.size() != maxPalette) throw new NBTException("Invalid Schematic: PaletteMax does not match Palette size");
 
+        Integer maxPalette = nbtTag.getInt("PaletteMax");
+        if (maxPalette == null && version < 3) throw new NBTException("Invalid Schematic: No PaletteMax");
+        if (maxPalette != null && keys.size() != maxPalette) throw new NBTException("Invalid Schematic: PaletteMax does not match Palette size");
+
+        this.blocks = new BlockStorage(width, height, length, keys.size());
         for (String key : keys) {
             Integer value = nbtPalette.getInt(key);
-            if (value == null) throw new NBTException("Invalid Schematic: Palette contains invalid value");
+            if (value == null || value < 0) throw new NBTException("Invalid Schematic: Palette contains invalid value");
 
-            palette.put(key, value);
+            blocks.setPaletteEntry(value, BlockStateCache.getStateId(key));
         }
 
-        palette = palette.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue())
-                .collect(LinkedHashMap::new, (map, entry) -> map.put(entry.getKey(), entry.getValue()), LinkedHashMap::putAll);
-
-        ImmutableByteArray blocksData = nbtTag.getByteArray("BlockData");
+        ImmutableByteArray blocksData = nbtTag.getByteArray(version >= 3 ? "Data" : "BlockData");
         if (blocksData == null || blocksData.getSize() == 0) throw new NBTException("Invalid Schematic: No BlockData");
         this.blocksData = blocksData.copyArray();
     }
 
     private void readBlocks() throws NBTException {
-        int index = 0;
-        int i = 0;
-        int value;
-        int varIntLength;
-        List<String> paletteKeys = new ArrayList<>(palette.keySet());
-
-        while (i < this.blocksData.length) {
-            value = 0;
-            varIntLength = 0;
-
-            while (true) {
-                value |= (this.blocksData[i] & 127) << (varIntLength++ * 7);
-                if (varIntLength > 5) throw new NBTException("Invalid Schematic: BlockData has invalid length");
-                if ((this.blocksData[i] & 128) != 128) {
-                    i++;
-                    break;
-                }
-                i++;
-            }
-
-            int x = (index % (width * length)) % width;
-            int y = index / (width * length);
-            int z = (index % (width * length)) / width;
+        BlockDataDecoder decoder = new BlockDataDecoder(blocks, blocks.getPaletteSize());
+        decoder.decodeParallel(ByteBuffer.wrap(this.blocksData), blocks.getPaletteSize());
+        decoder.finish(blocks.getPaletteSize());
 
-            String block = paletteKeys.get(value);
-            short stateId = getStateId(block);
+        this.blocksData = null;
+    }
 
-            this.regionBlocks.add(new Region.Block(new Pos(x + offsetX, y + offsetY, z + offsetZ), stateId));
+    private void readBlockEntities(@NotNull NBTCompound nbtTag) throws NBTException {
+        NBTList<NBTCompound> list = nbtTag.getList(nbtTag.containsKey("TileEntities") ? "TileEntities" : "BlockEntities");
+        if (list == null || list.getSize() == 0) return;
 
-            index++;
+        BlockEntities blockEntities = createBlockEntities();
+        for (NBTCompound compound : list) {
+            ImmutableIntArray position = compound.getIntArray("Pos");
+            if (position == null) throw new NBTException("Invalid Schematic: Block entity has no Pos");
+            blockEntities.put(blockIndex(position.copyArray()), compound);
         }
+        blockEntities.index(blocks);
+        this.blockEntities = blockEntities;
     }
 
-    @Override
-    public void write(@NotNull OutputStream outputStream, @NotNull Region region) {
-        // TODO: Complete
+    private @NotNull BlockEntities createBlockEntities() {
+        // Version 3 nests the data of a block entity, earlier versions store it next to its position and id
+        return version >= 3 ? new BlockEntities("Data") : new BlockEntities(null, "Pos", "Id");
     }
 
-    @Override
-    public CompletableFuture<Region> build(Instance instance, Point position) {
-        if (!read) throw new IllegalStateException("Schematic not read");
-        CompletableFuture<Region> future = new CompletableFuture<>();
-        CompletableFuture.runAsync(() -> {
-            AbsoluteBlockBatch blockBatch = new AbsoluteBlockBatch();
-
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            for (Region.Block regionBlock : regionBlocks) {
-                Pos absoluteBlockPosition = regionBlock.position().add(position);
-                short stateId = regionBlock.stateId();
-
-                Block block = Block.fromStateId(stateId);
-                if (block != null) futures.add(instance.loadOptionalChunk(absoluteBlockPosition).thenRun(() -> blockBatch.setBlock(absoluteBlockPosition, block)));
+    private int readPosition(@NotNull ByteBuffer payload) throws NBTException {
+        try (NBTInputStream input = new NBTInputStream(payload.duplicate())) {
+            byte type;
+            while ((type = input.readTagType()) != NBTInputStream.TAG_END) {
+                String name = input.readTagName();
+                if (name.equals("Pos") && type == NBTInputStream.TAG_INT_ARRAY) return blockIndex(input.readIntArray());
+                input.skipPayload(type);
             }
+        } catch (IOException e) {
+            throw new NBTException("Invalid Schematic: Block entity is truncated", e);
+        }
+        throw new NBTException("Invalid Schematic: Block entity has no Pos");
+    }
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).join();
-            blockBatch.apply(instance, () -> future.complete(new Region(instance, position, position.add(width, height, length))));
-        });
-        return future;
+    private int blockIndex(int @NotNull [] position) throws NBTException {
+        if (position.length != 3) throw new NBTException("Invalid Schematic: Block entity has invalid Pos");
+        int x = position[0];
+        int y = position[1];
+        int z = position[2];
+        if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= length) {
+            throw new NBTException("Invalid Schematic: Block entity outside of schematic");
+        }
+        return blocks.index(x, y, z);
     }
 
-    private Block getBlock(@NotNull String input) {
-        String namespaceId = input.split("\\[")[0];
+    private void readBiomes(@NotNull NBTCompound nbtTag) throws NBTException {
+        NBTCompound biomesTag = version >= 3 ? nbtTag.getCompound("Biomes") : nbtTag;
+        if (biomesTag == null) return;
 
-        return Block.fromNamespaceId(namespaceId);
+        ImmutableByteArray biomeData = biomesTag.getByteArray(version >= 3 ? "Data" : "BiomeData");
+        if (biomeData == null) return;
+        NBTCompound biomePalette = biomesTag.getCompound(version >= 3 ? "Palette" : "BiomePalette");
+        if (biomePalette == null) throw new NBTException("Invalid Schematic: No BiomePalette");
+
+        Map<String, Integer> entries = new HashMap<>();
+        for (String key : biomePalette.getKeys()) {
+            Integer value = biomePalette.getInt(key);
+            if (value == null) throw new NBTException("Invalid Schematic: BiomePalette contains invalid value");
+            entries.put(key, value);
+        }
+        this.biomeData = ByteBuffer.wrap(biomeData.copyArray());
+        this.biomes3d = version >= 3;
+        readBiomePalette(entries);
     }
 
-    private short getStateId(@NotNull String input) {
-        Block block = getBlock(input);
-        if (block == null) return 0;
-        String states = input.replaceAll(block.name(), "");
+    private void readBiomePalette(@NotNull Map<String, Integer> entries) throws NBTException {
+        int size = 0;
+        for (int value : entries.values()) {
+            if (value < 0) throw new NBTException("Invalid Schematic: BiomePalette contains invalid value");
+            size = Math.max(size, value + 1);
+        }
 
-        if (states.startsWith("[")) {
-            String[] stateArray = states.substring(1, states.length() - 1).split(",");
-            Map<String, String> properties = new HashMap<>(block.properties());
-            for (String state : stateArray) {
-                String[] split = state.split("=");
-                properties.replace(split[0], split[1]);
-            }
-            try {
-                return block.withProperties(properties).stateId();
-            } catch (Exception e) {
-                e.printStackTrace();
-                return block.stateId();
-            }
-        } else return block.stateId();
+        // Biomes unknown to the server are left as they are
+        BiomeManager biomeManager = MinecraftServer.getBiomeManager();
+        Biome[] biomePalette = new Biome[size];
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            biomePalette[entry.getValue()] = biomeManager.getByName(NamespaceID.from(entry.getKey()));
+        }
+        this.biomePalette = biomePalette;
     }
 
     @Override
-    public short getWidth() {
-        return width;
+    public boolean hasBiomes() {
+        return biomePalette != null;
     }
 
     @Override
-    public short getHeight() {
-        return height;
+    public @Nullable Biome getBiome(int x, int y, int z) {
+        if (!read) throw new IllegalStateException("Schematic not read");
+        if (biomePalette == null) return null;
+
+        x -= offsetX;
+        y -= offsetY;
+        z -= offsetZ;
+        if (x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= length) return null;
+
+        BlockStorage biomes = getBiomes();
+        return biomePalette[biomes.get(biomes.index(x, biomes3d ? y : 0, z))];
     }
 
-    @Override
-    public short getLength() {
-        return length;
+    private @NotNull BlockStorage getBiomes() {
+        BlockStorage biomes = this.biomes;
+        if (biomes != null) return biomes;
+
+        synchronized (this) {
+            if (this.biomes != null) return this.biomes;
+
+            // Biome palette indices are decoded the same way as block palette indices, on first use
+            biomes = new BlockStorage(width, biomes3d ? height : 1, length, biomePalette.length);
+            for (int i = 0; i < biomePalette.length; i++) biomes.setPaletteEntry(i, (short) i);
+            BlockDataDecoder decoder = new BlockDataDecoder(biomes, biomePalette.length);
+            try {
+                decoder.decode(biomeData);
+                decoder.finish(biomePalette.length);
+            } catch (NBTException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+
+            this.biomeData = null;
+            return this.biomes = biomes;
+        }
     }
 
+    /**
+     * Writes the given region as a Sponge schematic.
+     * <br><br>
+     * The loaded chunks of the region are captured in parallel, chunks that are not loaded are written as air.
+     * This blocks until the region is written, so it should not be called from the tick thread.
+     * @param outputStream Schematic output, closed once written
+     * @param region The region to write
+     * @throws IOException if the output stream could not be written
+     * @throws IllegalArgumentException if the region is too large for a schematic
+     */
     @Override
-    public int getOffsetX() {
-        return offsetX;
+    public void write(@NotNull OutputStream outputStream, @NotNull Region region) throws IOException {
+        int minX = Math.min(region.lower().blockX(), region.upper().blockX());
+        int minY = Math.min(region.lower().blockY(), region.upper().blockY());
+        int minZ = Math.min(region.lower().blockZ(), region.upper().blockZ());
+        int width = Math.max(region.lower().blockX(), region.upper().blockX()) - minX + 1;
+        int height = Math.max(region.lower().blockY(), region.upper().blockY()) - minY + 1;
+        int length = Math.max(region.lower().blockZ(), region.upper().blockZ()) - minZ + 1;
+        if (width > Short.MAX_VALUE || height > Short.MAX_VALUE || length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Region is too large for a Sponge schematic");
+        }
+
+        short[] states = capture(region.instance(), minX, minY, minZ, width, height, length);
+
+        // Build the palette in the order states are first seen, and size the block data up front so it can be
+        // streamed straight to the output. States with the same entry, such as unknown states written as air, share
+        // their palette index, as palette keys must be unique
+        int[] paletteIndices = new int[Short.MAX_VALUE + 1];
+        Arrays.fill(paletteIndices, -1);
+        Map<String, Integer> palette = new LinkedHashMap<>();
+        long blockDataLength = 0;
+        for (short state : states) {
+            int paletteIndex = paletteIndices[state];
+            if (paletteIndex == -1) {
+                String entry = toPaletteEntry(state);
+                Integer existing = palette.get(entry);
+                if (existing == null) palette.put(entry, existing = palette.size());
+                paletteIndex = paletteIndices[state] = existing;
+            }
+            blockDataLength += varIntSize(paletteIndex);
+        }
+        if (blockDataLength > Integer.MAX_VALUE) throw new IllegalArgumentException("Region is too large for a Sponge schematic");
+
+        try (NBTOutputStream output = new NBTOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream, BUFFER_SIZE), BUFFER_SIZE))) {
+            output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Schematic");
+            output.writeIntTag("Version", 1);
+            output.writeShortTag("Width", (short) width);
+            output.writeShortTag("Height", (short) height);
+            output.writeShortTag("Length", (short) length);
+            output.writeIntArrayTag("Offset", minX, minY, minZ);
+
+            output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Metadata");
+            output.writeIntTag("WEOffsetX", 0);
+            output.writeIntTag("WEOffsetY", 0);
+            output.writeIntTag("WEOffsetZ", 0);
+            output.writeEnd();
+
+            output.writeIntTag("PaletteMax", palette.size());
+            output.writeTagHeader(NBTInputStream.TAG_COMPOUND, "Palette");
+            for (Map.Entry<String, Integer> entry : palette.entrySet()) output.writeIntTag(entry.getKey(), entry.getValue());
+            output.writeEnd();
+
+            output.writeByteArrayHeader("BlockData", (int) blockDataLength);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int position = 0;
+            for (short state : states) {
+                if (position > buffer.length - 5) {
+                    output.write(buffer, 0, position);
+                    position = 0;
+                }
+
+                int value = paletteIndices[state];
+                while ((value & ~0x7F) != 0) {
+                    buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                buffer[position++] = (byte) value;
+            }
+            output.write(buffer, 0, position);
+
+            output.writeEnd();
+        }
     }
 
-    @Override
-    public int getOffsetY() {
-        return offsetY;
+    static short @NotNull [] capture(@NotNull Instance instance, int minX, int minY, int minZ, int width, int height, int length) {
+        if (width <= 0 || height <= 0 || length <= 0 || width > Short.MAX_VALUE || height > Short.MAX_VALUE || length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid region size: " + width + "x" + height + "x" + length);
+        }
+        short[] states;
+        try {
+            states = new short[Math.multiplyExact(Math.multiplyExact(width, height), length)];
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Region is too large for a schematic: " + width + "x" + height + "x" + length, e);
+        }
+        int maxX = minX + width - 1;
+        int maxY = minY + height - 1;
+        int maxZ = minZ + length - 1;
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int chunksZ = (maxZ >> 4) - minChunkZ + 1;
+        int chunks = ((maxX >> 4) - minChunkX + 1) * chunksZ;
+
+        // Every chunk writes to its own part of the array, so chunks can be captured in parallel
+        IntStream.range(0, chunks).parallel().forEach(i -> {
+            int chunkX = minChunkX + i / chunksZ;
+            int chunkZ = minChunkZ + i % chunksZ;
+            Chunk chunk = instance.getChunk(chunkX, chunkZ);
+            if (chunk == null) return;
+
+            int fromX = Math.max(chunkX << 4, minX);
+            int fromZ = Math.max(chunkZ << 4, minZ);
+            int toX = Math.min((chunkX << 4) + 15, maxX);
+            int toZ = Math.min((chunkZ << 4) + 15, maxZ);
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int index = ((y - minY) * length + (z - minZ)) * width + (fromX - minX);
+                    for (int x = fromX; x <= toX; x++) {
+                        Block block = chunk.getBlock(x, y, z, Block.Getter.Condition.TYPE);
+                        if (block != null) states[index] = block.stateId();
+                        index++;
+                    }
+                }
+            }
+        });
+        return states;
     }
 
-    @Override
-    public int getOffsetZ() {
-        return offsetZ;
+    private static int varIntSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
     }
 
-    @Override
-    public void apply(@NotNull Block.Setter setter) {
-        for (Region.Block block : regionBlocks) {
-            Pos pos = block.position();
-            Block minestomBlock = Block.fromStateId(block.stateId());
-            if (minestomBlock != null)  {
-                setter.setBlock(pos, minestomBlock);
-            } else {
-                throw new IllegalStateException("Invalid block state id: " + block.stateId());
-            }
+    private static @NotNull String toPaletteEntry(short stateId) {
+        Block block = Block.fromStateId(stateId);
+        if (block == null) return "minecraft:air";
+
+        Map<String, String> properties = block.properties();
+        if (properties.isEmpty()) return block.name();
+
+        StringBuilder builder = new StringBuilder(block.name()).append('[');
+        boolean first = true;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (!first) builder.append(',');
+            builder.append(property.getKey()).append('=').append(property.getValue());
+            first = false;
         }
+        return builder.append(']').toString();
     }
 
 }